@@ -0,0 +1,102 @@
+package radio.n2ehl;
+
+import com.opencsv.CSVReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each stage of the CSV to markdown to PDF pipeline separately, over synthetic exports of different sizes.
+ * Run with "./gradlew jmh", results (including allocation rates from the gc profiler) go to build/results/jmh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReportPipelineBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    int rows;
+
+    String csv;
+    List<ReportGenerator.Transaction> transactions;
+    ReportGenerator generator;
+    String markdown;
+    String html;
+    MarkdownToPdfConverter converter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        csv = SyntheticQuickenExport.generate(rows);
+        transactions = parse(csv);
+
+        generator = new ReportGenerator(new BigDecimal("1000.00"), new BigDecimal("1100.00"), new ReportConfig(new HashMap<>()));
+        markdown = generator.generate(new StringReader(csv));
+
+        converter = new MarkdownToPdfConverter();
+        html = converter.renderHtml(markdown);
+    }
+
+    static List<ReportGenerator.Transaction> parse(final String csv) throws Exception {
+        final List<ReportGenerator.Transaction> transactions = new ArrayList<>();
+        final QuickenRowClassifier classifier = new QuickenRowClassifier();
+        try (CSVReader csvReader = new CSVReader(new StringReader(csv))) {
+            String[] row;
+            while ((row = csvReader.readNext()) != null) {
+                final ReportGenerator.Transaction transaction = classifier.parseRow(row);
+                if (transaction != null) {
+                    transactions.add(transaction);
+                }
+            }
+        }
+        return transactions;
+    }
+
+    @Benchmark
+    public void parseAndClassify(final Blackhole blackhole) throws Exception {
+        final QuickenRowClassifier classifier = new QuickenRowClassifier();
+        try (CSVReader csvReader = new CSVReader(new StringReader(csv))) {
+            String[] row;
+            while ((row = csvReader.readNext()) != null) {
+                blackhole.consume(classifier.parseRow(row));
+            }
+        }
+    }
+
+    @Benchmark
+    public ReportAggregate createCategories() {
+        final ReportAggregate aggregate = new ReportAggregate(false);
+        aggregate.categorizeAll(transactions);
+        return aggregate;
+    }
+
+    @Benchmark
+    public String writeMarkdown() {
+        return generator.writeMarkdown();
+    }
+
+    @Benchmark
+    public String renderHtml() {
+        return converter.renderHtml(markdown);
+    }
+
+    @Benchmark
+    public void exportPdf() throws IOException {
+        converter.exportToPdf(html, OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,45 @@
+package radio.n2ehl;
+
+import java.util.Random;
+
+/**
+ * Builds Quicken-format CSV exports of any size for the benchmarks, always the same for the same row count.
+ */
+class SyntheticQuickenExport {
+    static final String HEADER = ",,,Date,Num,Payee,Category,Tags,Clr,Amount,Account,Memo/Notes\n";
+
+    private static final String[] CATEGORIES = {
+            "Dues:Annual", "Dues:Family", "Dues:Life", "Donations", "Hamfest:Tables", "Hamfest:Admission",
+            "Hamfest:Food", "Utilities:Electric", "Utilities:Internet", "Insurance", "Repeater:Maintenance",
+            "Repeater:Site Rent", "Field Day:Food", "Field Day:Equipment", "Postage", "Bank Charges",
+            "Transfer:[Savings]"
+    };
+    private static final String[] PAYEES = {
+            "ARRL", "PSE&G", "Verizon", "\"Costco, Inc.\"", "State Farm", "USPS", "Home Depot", "Member"
+    };
+    private static final String[] ACCOUNTS = {"Checking", "Savings", "PayPal"};
+
+    static String generate(final int rows) {
+        final Random random = new Random(rows);
+        final StringBuilder csv = new StringBuilder(HEADER.length() + rows * 64);
+        csv.append(HEADER);
+
+        for (int i = 0; i < rows; i++) {
+            final int cents = random.nextInt(100_000) - 50_000;
+            csv.append(",,,")
+                    .append(random.nextInt(12) + 1).append('/').append(random.nextInt(28) + 1).append("/2022,")
+                    .append(random.nextInt(10_000)).append(',')
+                    .append(PAYEES[random.nextInt(PAYEES.length)]).append(',')
+                    .append(CATEGORIES[random.nextInt(CATEGORIES.length)]).append(",,R,")
+                    .append(cents < 0 ? "-" : "").append(Math.abs(cents) / 100).append('.')
+                    .append(String.format("%02d", Math.abs(cents) % 100)).append(',')
+                    .append(ACCOUNTS[random.nextInt(ACCOUNTS.length)]).append(',')
+                    .append(i % 10 == 0 ? "\"memo, with a comma\"" : "").append('\n');
+        }
+
+        csv.append("Total Inflows:,,,,,,,,,0.00,,\n")
+                .append("Total Outflows:,,,,,,,,,0.00,,\n")
+                .append("Net Total:,0.00,,,,,,,,,,\n");
+        return csv.toString();
+    }
+}
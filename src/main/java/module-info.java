@@ -5,7 +5,11 @@ module treasurers_report {
     requires lombok;
     requires org.apache.commons.text;
     requires java.desktop;
+    requires jdk.jfr;
+    requires jdk.management;
+    requires jdk.httpserver;
     requires commons.exec;
+    requires commons.cli;
     requires org.apache.commons.lang3;
     requires flexmark;
     requires flexmark.ext.toc;
@@ -15,6 +19,9 @@ module treasurers_report {
     requires flexmark.util.data;
     requires org.apache.commons.io;
     requires flexmark.util.misc;
+    requires openhtmltopdf.core;
+    requires openhtmltopdf.pdfbox;
+    requires org.jsoup;
 
     exports radio.n2ehl;
     exports radio.n2ehl.skin;
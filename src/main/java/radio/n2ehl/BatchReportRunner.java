@@ -0,0 +1,142 @@
+package radio.n2ehl;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import org.apache.logging.log4j.LogManager;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates many reports headlessly, rendering them in parallel on a fixed pool of worker threads.
+ */
+public class BatchReportRunner {
+    private final int workers;
+    private final TransactionLedger ledger;
+
+    public BatchReportRunner(final int workers) {
+        this(workers, null);
+    }
+
+    /**
+     * @param ledger if not null, the transactions of every job are also recorded in this ledger
+     */
+    public BatchReportRunner(final int workers, final TransactionLedger ledger) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1");
+        }
+        this.workers = workers;
+        this.ledger = ledger;
+    }
+
+    /**
+     * Reads the jobs to run from either a directory of CSV exports with sidecar balances files,
+     * or a manifest CSV file with one "csv, starting balance, ending balance, output pdf" line per report.
+     * Relative paths in a manifest are resolved against the manifest's directory.
+     *
+     * In a directory, an export whose balances file is missing or incomplete is reported and added to skipped,
+     * rather than stopping the other reports.
+     */
+    static List<ReportJob> readJobs(final Path manifestOrDirectory, final Path outputDir, final List<Path> skipped) throws IOException {
+        if (Files.isDirectory(manifestOrDirectory)) {
+            final List<Path> csvPaths;
+            try (Stream<Path> files = Files.list(manifestOrDirectory)) {
+                csvPaths = files.filter(path -> path.getFileName().toString().toLowerCase().endsWith(".csv"))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+
+            final List<ReportJob> jobs = new ArrayList<>();
+            for (Path csvPath : csvPaths) {
+                final String balancesFile = ReportJob.baseName(csvPath) + ReportJob.BALANCES_EXTENSION;
+                try {
+                    jobs.add(ReportJob.fromSidecar(csvPath, outputDir));
+                } catch (NoSuchFileException ex) {
+                    System.err.println("Skipping " + csvPath.getFileName() + ": there is no " + balancesFile + " file");
+                    skipped.add(csvPath);
+                } catch (IOException | IllegalArgumentException ex) {
+                    System.err.println("Skipping " + csvPath.getFileName() + ": " + ex.getMessage() + " in " + balancesFile);
+                    skipped.add(csvPath);
+                }
+            }
+            return jobs;
+        }
+
+        return readManifest(manifestOrDirectory);
+    }
+
+    static List<ReportJob> readManifest(final Path manifestPath) throws IOException {
+        final Path baseDir = manifestPath.toAbsolutePath().getParent();
+        final List<ReportJob> jobs = new ArrayList<>();
+
+        try (CSVReader csvReader = new CSVReader(new FileReader(manifestPath.toFile()))) {
+            String[] row;
+            while ((row = csvReader.readNext()) != null) {
+                if (row.length == 0 || row[0].isBlank() || row[0].trim().startsWith("#")) {
+                    continue;
+                }
+                if (row.length < 4) {
+                    throw new IOException("manifest line " + csvReader.getLinesRead() + " should have 4 columns: csv, starting balance, ending balance, output pdf");
+                }
+
+                jobs.add(ReportJob.builder()
+                        .csvPath(baseDir.resolve(row[0].trim()))
+                        .startingBalance(ReportJob.parseBalance(row[1], ReportJob.STARTING_BALANCE))
+                        .endingBalance(ReportJob.parseBalance(row[2], ReportJob.ENDING_BALANCE))
+                        .pdfPath(baseDir.resolve(row[3].trim()))
+                        .build());
+            }
+        } catch (CsvValidationException ex) {
+            throw new IOException("invalid manifest " + manifestPath, ex);
+        }
+
+        return jobs;
+    }
+
+    /**
+     * Renders all the jobs, returning the number that failed.
+     */
+    public int run(final List<ReportJob> jobs) throws InterruptedException {
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, Math.max(jobs.size(), 1)));
+        try {
+            final List<Future<?>> results = new ArrayList<>();
+            for (ReportJob job : jobs) {
+                results.add(pool.submit(() -> {
+                    renderReport(job, ledger);
+                    return null;
+                }));
+            }
+
+            int failures = 0;
+            for (int i = 0; i < jobs.size(); i++) {
+                final ReportJob job = jobs.get(i);
+                try {
+                    results.get(i).get();
+                    System.out.println("Generated " + job.pdfPath);
+                } catch (ExecutionException ex) {
+                    failures++;
+                    System.err.println("Failed to generate a report from " + job.csvPath + ": " + ex.getCause().getMessage());
+                    LogManager.getLogger().error("batch report failed for " + job.csvPath, ex.getCause());
+                }
+            }
+            return failures;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    static void renderReport(final ReportJob job, final TransactionLedger ledger) throws IOException {
+        ReportPipeline.renderPdf(job.csvPath, job.startingBalance, job.endingBalance, job.pdfPath, ledger);
+    }
+}
@@ -0,0 +1,89 @@
+package radio.n2ehl;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.NumberFormat;
+
+/**
+ * Money as a long number of cents, used for parsing and adding up transaction amounts without allocating.
+ * Amounts only become BigDecimals, or formatted strings, when the report is rendered.
+ * Arithmetic that would overflow throws an ArithmeticException rather than wrapping.
+ */
+public final class Cents {
+    static final int SCALE = 2;
+
+    private Cents() {
+    }
+
+    /**
+     * Parses an amount like "-1234.56", "12.5" or "+7", with at most two decimal places.
+     */
+    public static long parse(final CharSequence amount) {
+        final int length = amount.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (amount.charAt(0) == '-' || amount.charAt(0) == '+')) {
+            negative = amount.charAt(0) == '-';
+            i++;
+        }
+
+        long cents = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; i < length; i++) {
+            final char c = amount.charAt(i);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (c >= '0' && c <= '9') {
+                digits++;
+                if (decimals >= SCALE) {
+                    if (c != '0') {
+                        throw new NumberFormatException("more than " + SCALE + " decimal places in amount: " + amount);
+                    }
+                    continue;
+                }
+                if (decimals >= 0) {
+                    decimals++;
+                }
+                cents = Math.addExact(Math.multiplyExact(cents, 10), c - '0');
+            } else {
+                throw new NumberFormatException("invalid amount: " + amount);
+            }
+        }
+
+        if (digits == 0) {
+            throw new NumberFormatException("invalid amount: " + amount);
+        }
+
+        for (int scale = Math.max(decimals, 0); scale < SCALE; scale++) {
+            cents = Math.multiplyExact(cents, 10);
+        }
+        return negative ? -cents : cents;
+    }
+
+    public static long add(final long cents, final long moreCents) {
+        return Math.addExact(cents, moreCents);
+    }
+
+    public static long fromBigDecimal(final BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal toBigDecimal(final long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    /**
+     * Formats the amount without a currency symbol, e.g. "-1234.56".
+     */
+    public static String toPlainString(final long cents) {
+        return toBigDecimal(cents).toPlainString();
+    }
+
+    /**
+     * Formats the amount as currency in the default locale, e.g. "$1,234.56".
+     */
+    public static String toCurrencyString(final long cents) {
+        return NumberFormat.getCurrencyInstance().format(toBigDecimal(cents));
+    }
+}
@@ -0,0 +1,36 @@
+package radio.n2ehl;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where the rows of a CSV export come from: OpenCSV reading from a Reader, or the memory-mapped tokenizer.
+ */
+interface CsvRowSource extends Closeable {
+
+    /**
+     * The next row, or null at the end of the export.
+     */
+    String[] readNext() throws IOException;
+
+    static CsvRowSource of(final CSVReader csvReader) {
+        return new CsvRowSource() {
+            @Override
+            public String[] readNext() throws IOException {
+                try {
+                    return csvReader.readNext();
+                } catch (CsvValidationException ex) {
+                    throw new IOException(ex.getMessage(), ex);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                csvReader.close();
+            }
+        };
+    }
+}
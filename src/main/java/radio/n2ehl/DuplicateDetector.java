@@ -0,0 +1,167 @@
+package radio.n2ehl;
+
+import radio.n2ehl.ReportGenerator.Transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Spots transactions reported by more than one of the exports merged into a report, as when a month is exported
+ * twice or exports cover overlapping dates, so they aren't counted twice.
+ *
+ * Each transaction is reduced to a 64-bit fingerprint of its date, amount, payee and account, which indexes how many
+ * times each export has reported it. A transaction is a duplicate when another export has already reported it at
+ * least as many times, so identical transactions within one export, like two equal donations on the same day,
+ * are all counted.
+ *
+ * Fingerprints are dropped from the index once their day is more than the window of days behind the latest day seen,
+ * keeping it to a few days of transactions however many years the exports cover, whatever order they come in.
+ * The merged exports normally come in date order; a transaction already behind the window when it arrives,
+ * from an export that isn't in date order, can't be checked and is counted as a unique one.
+ */
+class DuplicateDetector {
+    static final String WINDOW_SETTING = "duplicate_window_days";
+    static final int DEFAULT_WINDOW_DAYS = 3;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int exports;
+    private final int windowDays;
+    private final Map<Long, Entry> index = new HashMap<>();
+    // the index's entries by day, for dropping the days that fall behind the window
+    private final TreeMap<Integer, List<Entry>> entriesByDay = new TreeMap<>();
+    private int latestDay = Integer.MIN_VALUE;
+    private int uncheckedCount = 0;
+
+    // the duplicates found in each export
+    private final TransactionTable[] duplicates;
+    private int duplicateCount = 0;
+
+    DuplicateDetector(final int exports, final int windowDays, final TransactionTable.Dictionary dictionary) {
+        this.exports = exports;
+        this.windowDays = windowDays;
+        this.duplicates = new TransactionTable[exports];
+        for (int i = 0; i < exports; i++) {
+            duplicates[i] = new TransactionTable(dictionary);
+        }
+    }
+
+    /**
+     * The "duplicate_window_days" setting, a whole number of days, or DEFAULT_WINDOW_DAYS by default.
+     */
+    static int windowDays(final ReportConfig config) {
+        final String setting = config.get(WINDOW_SETTING);
+        if (setting == null || setting.isBlank()) {
+            return DEFAULT_WINDOW_DAYS;
+        }
+
+        try {
+            final int windowDays = Integer.parseInt(setting.trim());
+            if (windowDays >= 0) {
+                return windowDays;
+            }
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        throw new IllegalArgumentException("invalid " + WINDOW_SETTING + ": " + setting + " (days, 0 for the same day only)");
+    }
+
+    /**
+     * Records the transaction as reported by the export, returning true, and keeping it as a duplicate,
+     * if another export has already reported it.
+     */
+    boolean isDuplicate(final Transaction transaction, final int export) {
+        final int day = (int) transaction.transactionDate.toEpochDay();
+        if (day > latestDay) {
+            latestDay = day;
+            while (!entriesByDay.isEmpty() && entriesByDay.firstKey() < windowStart()) {
+                for (Entry entry : entriesByDay.pollFirstEntry().getValue()) {
+                    index.remove(entry.fingerprint);
+                }
+            }
+        } else if (day < windowStart()) {
+            uncheckedCount++;
+            return false;
+        }
+
+        final long fingerprint = fingerprint(day, transaction);
+        Entry entry = index.get(fingerprint);
+        if (entry == null) {
+            entry = new Entry(fingerprint, exports);
+            index.put(fingerprint, entry);
+            entriesByDay.computeIfAbsent(day, d -> new ArrayList<>()).add(entry);
+        }
+
+        final int occurrence = ++entry.counts[export];
+        for (int other = 0; other < exports; other++) {
+            if (other != export && entry.counts[other] >= occurrence) {
+                duplicates[export].add(transaction);
+                duplicateCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long windowStart() {
+        return (long) latestDay - windowDays;
+    }
+
+    int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * How many transactions arrived too far out of date order to be checked.
+     */
+    int getUncheckedCount() {
+        return uncheckedCount;
+    }
+
+    /**
+     * How many fingerprints the index holds.
+     */
+    int indexSize() {
+        return index.size();
+    }
+
+    TransactionTable getDuplicates(final int export) {
+        return duplicates[export];
+    }
+
+    /**
+     * FNV-1a over the date, amount, payee and account.
+     */
+    static long fingerprint(final int day, final Transaction transaction) {
+        long hash = FNV_OFFSET;
+        hash = (hash ^ day) * FNV_PRIME;
+        hash = (hash ^ transaction.amount) * FNV_PRIME;
+        hash = hash(hash, transaction.payee);
+        return hash(hash, transaction.account);
+    }
+
+    private static long hash(long hash, final String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+            }
+        }
+        // separates the strings, and null from empty
+        return (hash ^ (value != null ? 0x1f : 0x1e)) * FNV_PRIME;
+    }
+
+    private static class Entry {
+        final long fingerprint;
+        // how many times each export has reported the transaction
+        final int[] counts;
+
+        Entry(final long fingerprint, final int exports) {
+            this.fingerprint = fingerprint;
+            this.counts = new int[exports];
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package radio.n2ehl;
+
+import org.apache.logging.log4j.LogManager;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches a directory for Quicken CSV exports and renders each one to PDF as it lands, using the balances
+ * from its sidecar file (see ReportJob.fromSidecar).
+ *
+ * A CSV is only picked up once it has stopped changing for QUIET_PERIOD_MILLIS, so exports that are still being
+ * written or copied in aren't read half-finished. A CSV that changes again after its report was rendered is rendered
+ * again. Reports are queued onto a bounded pool of workers; while the queue is full, ready exports wait for the next check.
+ */
+public class ExportWatcher {
+    // how long a CSV and its balances must go unchanged before it's rendered
+    static final long QUIET_PERIOD_MILLIS = 2000;
+    static final long POLL_INTERVAL_MILLIS = 500;
+    static final int QUEUE_CAPACITY = 64;
+
+    private final Path directory;
+    private final Path outputDir;
+    private final TransactionLedger ledger;
+    private final ThreadPoolExecutor pool;
+
+    // exports waiting to settle, with the size and time they last changed
+    private final Map<Path, PendingExport> pending = new HashMap<>();
+    private final Set<Path> rendering = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param outputDir where to write PDFs, or null to write them next to each CSV
+     * @param ledger if not null, the transactions of every export are also recorded in this ledger
+     */
+    public ExportWatcher(final Path directory, final Path outputDir, final int workers, final TransactionLedger ledger) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1");
+        }
+        this.directory = directory;
+        this.outputDir = outputDir;
+        this.ledger = ledger;
+        this.pool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+    }
+
+    /**
+     * Watches until the thread is interrupted. Exports already in the directory without an up to date PDF are rendered first.
+     */
+    public void run() throws IOException, InterruptedException {
+        try (WatchService watchService = directory.getFileSystem().newWatchService()) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            System.out.println("Watching " + directory.toAbsolutePath() + " for Quicken CSV exports");
+            scan();
+
+            while (!Thread.currentThread().isInterrupted()) {
+                final WatchKey key = watchService.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // events were lost, look at everything again
+                            scan();
+                        } else {
+                            changed(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        throw new IOException(directory + " can no longer be watched");
+                    }
+                }
+                submitSettledExports();
+            }
+        } catch (ClosedWatchServiceException ex) {
+            // shutting down
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void scan() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(ExportWatcher::isExport).filter(csvPath -> !isUpToDate(csvPath)).forEach(this::changed);
+        }
+    }
+
+    static boolean isExport(final Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(".csv");
+    }
+
+    private void changed(final Path path) {
+        final Path csvPath;
+        if (isExport(path)) {
+            csvPath = path;
+        } else if (path.getFileName().toString().endsWith(ReportJob.BALANCES_EXTENSION)) {
+            // new balances re-render their export, or let one that was waiting for them go ahead
+            csvPath = path.resolveSibling(ReportJob.baseName(path) + ".csv");
+            if (!Files.exists(csvPath)) {
+                return;
+            }
+        } else {
+            return;
+        }
+        pending.put(csvPath, new PendingExport(size(csvPath), System.currentTimeMillis()));
+    }
+
+    private void submitSettledExports() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<Path, PendingExport>> exports = pending.entrySet().iterator();
+        while (exports.hasNext()) {
+            final Map.Entry<Path, PendingExport> export = exports.next();
+            final Path csvPath = export.getKey();
+            final long size = size(csvPath);
+            if (size < 0) {
+                // removed or renamed before it settled
+                exports.remove();
+                continue;
+            }
+            if (size != export.getValue().size) {
+                // still being written, even if no event said so
+                export.setValue(new PendingExport(size, now));
+                continue;
+            }
+            if (now - export.getValue().lastChangedMillis < QUIET_PERIOD_MILLIS || rendering.contains(csvPath)) {
+                continue;
+            }
+
+            final ReportJob job;
+            try {
+                job = ReportJob.fromSidecar(csvPath, outputDir);
+            } catch (IOException ex) {
+                // the balances haven't landed yet, their arrival will bring the export back
+                System.out.println("Waiting for a " + ReportJob.BALANCES_EXTENSION + " file for " + csvPath.getFileName());
+                exports.remove();
+                continue;
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Waiting for complete balances for " + csvPath.getFileName() + ": " + ex.getMessage());
+                exports.remove();
+                continue;
+            }
+
+            try {
+                rendering.add(csvPath);
+                pool.execute(() -> render(job));
+                exports.remove();
+            } catch (RejectedExecutionException ex) {
+                // the queue is full, try again on the next check
+                rendering.remove(csvPath);
+                return;
+            }
+        }
+    }
+
+    private void render(final ReportJob job) {
+        try {
+            BatchReportRunner.renderReport(job, ledger);
+            System.out.println("Generated " + job.pdfPath);
+        } catch (Exception ex) {
+            System.err.println("Failed to generate a report from " + job.csvPath + ": " + ex.getMessage());
+            LogManager.getLogger().error("watched report failed for " + job.csvPath, ex);
+        } finally {
+            rendering.remove(job.csvPath);
+        }
+    }
+
+    /**
+     * Whether the export's PDF is newer than both the CSV and its balances.
+     */
+    private boolean isUpToDate(final Path csvPath) {
+        try {
+            final ReportJob job = ReportJob.fromSidecar(csvPath, outputDir);
+            final Path balancesPath = csvPath.resolveSibling(ReportJob.baseName(csvPath) + ReportJob.BALANCES_EXTENSION);
+            return Files.exists(job.pdfPath)
+                    && Files.getLastModifiedTime(job.pdfPath).compareTo(Files.getLastModifiedTime(csvPath)) > 0
+                    && Files.getLastModifiedTime(job.pdfPath).compareTo(Files.getLastModifiedTime(balancesPath)) > 0;
+        } catch (IOException | IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    private static long size(final Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    private static class PendingExport {
+        final long size;
+        final long lastChangedMillis;
+
+        PendingExport(final long size, final long lastChangedMillis) {
+            this.size = size;
+            this.lastChangedMillis = lastChangedMillis;
+        }
+    }
+}
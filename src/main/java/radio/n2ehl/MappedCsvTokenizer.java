@@ -0,0 +1,247 @@
+package radio.n2ehl;
+
+import com.opencsv.CSVParser;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Reads the rows of a CSV export by memory-mapping the file and tokenizing it in place.
+ *
+ * Only the fields the caller needs are decoded into Strings; the rest of each row is left null,
+ * so a wide export costs a handful of Strings per row rather than one per field.
+ * Rows come out exactly as OpenCSV's CSVReader would produce them. Records with ordinary quoting
+ * (unquoted fields, and quoted fields with "" for a quote) are split on the mapped bytes. The rare record with
+ * a backslash or a stray quote is handed, line by line, to OpenCSV's own parser, which decides such cases.
+ *
+ * The file's charset must encode ',', '"', '\\', CR and LF as their ASCII bytes and never use those bytes
+ * inside other characters (see supports). A tokenizer maps less than 2 GB; larger files are read a region at a time,
+ * each region starting and ending on a record boundary (see ParallelCsvIngest).
+ */
+class MappedCsvTokenizer implements CsvRowSource {
+    static final String ENGINE_SETTING = "csv_engine";
+    static final String MAPPED_ENGINE = "mapped";
+
+    static final byte SEPARATOR = ',';
+    static final byte QUOTE = '"';
+    static final byte ESCAPE = '\\';
+    static final byte CR = '\r';
+    static final byte LF = '\n';
+
+    private final FileChannel channel;
+    // whether closing the tokenizer closes the channel, regions of a file share its channel
+    private final boolean ownsChannel;
+    private final MappedByteBuffer buffer;
+    private final int limit;
+    private final Charset charset;
+    // the columns to decode, null for all of them
+    private final Supplier<boolean[]> neededColumns;
+
+    private int position = 0;
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private byte[] scratch = new byte[256];
+    private final CSVParser fallbackParser = new CSVParser();
+
+    private MappedCsvTokenizer(final FileChannel channel, final boolean ownsChannel, final long offset, final long length, final Charset charset,
+                               final Supplier<boolean[]> neededColumns) throws IOException {
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        this.limit = buffer.limit();
+        this.charset = charset;
+        this.neededColumns = neededColumns;
+    }
+
+    /**
+     * Opens the export, or returns null if it can't be tokenized in place (an unsupported charset, or 2 GB or more).
+     */
+    static MappedCsvTokenizer open(final Path csvPath, final Charset charset, final Supplier<boolean[]> neededColumns) throws IOException {
+        if (!supports(charset)) {
+            return null;
+        }
+
+        final FileChannel channel = FileChannel.open(csvPath, StandardOpenOption.READ);
+        if (channel.size() >= Integer.MAX_VALUE) {
+            channel.close();
+            return null;
+        }
+        return new MappedCsvTokenizer(channel, true, 0, channel.size(), charset, neededColumns);
+    }
+
+    /**
+     * Tokenizes length bytes of the file from offset, as if they were the whole file. The channel is left open.
+     */
+    static MappedCsvTokenizer region(final FileChannel channel, final long offset, final long length, final Charset charset,
+                                     final Supplier<boolean[]> neededColumns) throws IOException {
+        return new MappedCsvTokenizer(channel, false, offset, length, charset, neededColumns);
+    }
+
+    /**
+     * How many bytes of the region the rows read so far took up, including their line ends.
+     */
+    int consumed() {
+        return position;
+    }
+
+    static boolean supports(final Charset charset) {
+        // UTF-8 never uses ASCII bytes inside multi-byte characters, single byte charsets have nothing to be inside of
+        final boolean asciiSafe = charset.equals(StandardCharsets.UTF_8) || charset.newEncoder().maxBytesPerChar() == 1.0f;
+        return asciiSafe && Arrays.equals(",\"\\\r\n".getBytes(charset), ",\"\\\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public String[] readNext() throws IOException {
+        if (position >= limit) {
+            return null;
+        }
+
+        // find the end of the record and its field boundaries, a line end only ends it outside quotes
+        final int recordStart = position;
+        int fieldCount = 0;
+        fieldStarts[0] = recordStart;
+        boolean inQuotes = false;
+        int i = recordStart;
+        int recordEnd;
+        while (true) {
+            if (i >= limit) {
+                if (inQuotes) {
+                    throw new IOException("unterminated quoted field at the end of the file");
+                }
+                recordEnd = limit;
+                position = limit;
+                break;
+            }
+
+            final byte b = buffer.get(i);
+            if (b == QUOTE) {
+                inQuotes = !inQuotes;
+            } else if (b == ESCAPE) {
+                // backslash escapes change where quotes start and end
+                return readWithFallbackParser(recordStart);
+            } else if (!inQuotes) {
+                if (b == SEPARATOR) {
+                    fieldEnds[fieldCount++] = i;
+                    if (fieldCount == fieldStarts.length) {
+                        fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+                        fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+                    }
+                    fieldStarts[fieldCount] = i + 1;
+                } else if (b == LF || b == CR) {
+                    recordEnd = i;
+                    position = b == CR && i + 1 < limit && buffer.get(i + 1) == LF ? i + 2 : i + 1;
+                    break;
+                }
+            }
+            i++;
+        }
+        fieldEnds[fieldCount++] = recordEnd;
+
+        final boolean[] needed = neededColumns.get();
+        final String[] row = new String[fieldCount];
+        for (int field = 0; field < fieldCount; field++) {
+            if (needed == null || (field < needed.length && needed[field])) {
+                row[field] = decodeField(fieldStarts[field], fieldEnds[field]);
+                if (row[field] == null) {
+                    return readWithFallbackParser(recordStart);
+                }
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Decodes an unquoted field, or a quoted one with only doubled quotes inside, returning null for anything else.
+     */
+    private String decodeField(final int start, final int end) {
+        final int length = end - start;
+        if (length >= 2 && buffer.get(start) == QUOTE && buffer.get(end - 1) == QUOTE) {
+            ensureScratch(length);
+            int decoded = 0;
+            for (int i = start + 1; i < end - 1; i++) {
+                final byte b = buffer.get(i);
+                if (b == QUOTE) {
+                    if (i + 1 >= end - 1 || buffer.get(i + 1) != QUOTE) {
+                        return null;
+                    }
+                    i++;
+                } else if (b == CR) {
+                    // OpenCSV joins the lines of a multi-line field with '\n'
+                    if (i + 1 < end - 1 && buffer.get(i + 1) == LF) {
+                        i++;
+                    }
+                    scratch[decoded++] = LF;
+                    continue;
+                }
+                scratch[decoded++] = b;
+            }
+            return new String(scratch, 0, decoded, charset);
+        }
+
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == QUOTE) {
+                return null;
+            }
+        }
+        if (length == 0) {
+            return "";
+        }
+        ensureScratch(length);
+        buffer.get(start, scratch, 0, length);
+        return new String(scratch, 0, length, charset);
+    }
+
+    /**
+     * Parses the record starting at recordStart the way CSVReader does, one line at a time through OpenCSV's parser.
+     */
+    private String[] readWithFallbackParser(final int recordStart) throws IOException {
+        position = recordStart;
+        String[] row = null;
+        do {
+            if (position >= limit) {
+                throw new IOException("unterminated quoted field at the end of the file");
+            }
+
+            int lineEnd = position;
+            while (lineEnd < limit && buffer.get(lineEnd) != LF && buffer.get(lineEnd) != CR) {
+                lineEnd++;
+            }
+            final int length = lineEnd - position;
+            ensureScratch(length);
+            buffer.get(position, scratch, 0, length);
+            final String line = new String(scratch, 0, length, charset);
+            position = lineEnd < limit && buffer.get(lineEnd) == CR && lineEnd + 1 < limit && buffer.get(lineEnd + 1) == LF ? lineEnd + 2 : lineEnd + 1;
+
+            final String[] tokens = fallbackParser.parseLineMulti(line);
+            if (tokens.length > 0) {
+                if (row == null) {
+                    row = tokens;
+                } else {
+                    row = Arrays.copyOf(row, row.length + tokens.length);
+                    System.arraycopy(tokens, 0, row, row.length - tokens.length, tokens.length);
+                }
+            }
+        } while (fallbackParser.isPending());
+        return row;
+    }
+
+    private void ensureScratch(final int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+}
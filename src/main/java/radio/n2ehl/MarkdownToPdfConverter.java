@@ -1,5 +1,11 @@
 package radio.n2ehl;
 
+import com.openhtmltopdf.extend.FSCacheEx;
+import com.openhtmltopdf.extend.FSCacheValue;
+import com.openhtmltopdf.extend.impl.FSDefaultCacheStore;
+import com.openhtmltopdf.outputdevice.helper.BaseRendererBuilder;
+import com.openhtmltopdf.pdfboxout.PdfBoxRenderer;
+import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
 import com.vladsch.flexmark.ext.toc.TocExtension;
 import com.vladsch.flexmark.html.HtmlRenderer;
 import com.vladsch.flexmark.parser.Parser;
@@ -9,12 +15,26 @@ import com.vladsch.flexmark.profile.pegdown.PegdownOptionsAdapter;
 import com.vladsch.flexmark.util.ast.Node;
 import com.vladsch.flexmark.util.data.DataHolder;
 import com.vladsch.flexmark.util.misc.Extension;
+import org.jsoup.Jsoup;
+import org.jsoup.helper.W3CDom;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
-
+/**
+ * Renders report markdown to PDF.
+ *
+ * The parser, HTML renderer, CSS and font are built once, and the PDF renderer's font metrics are cached
+ * between documents, so after the first report only the document itself costs anything to render.
+ * An instance is safe to use from several threads at once.
+ */
 public class MarkdownToPdfConverter {
 
 
@@ -25,78 +45,122 @@ public class MarkdownToPdfConverter {
             .set(TocExtension.LIST_CLASS, PdfConverterExtension.DEFAULT_TOC_LIST_CLASS)
             .toImmutable();
 
-    public static boolean convertMarkdownToPdf(final Path markdownPath, final Path pdfPath) throws IOException {
-        final String markdown = readMarkdown(markdownPath);
-        final Parser markdownParser = Parser.builder(OPTIONS).build();
-        final Node document = markdownParser.parse(markdown);
+    // part of the report cache key with a fingerprint of the generator's classes and resources, which catches changes
+    // to this tree; bump it for what the fingerprint can't see, like library upgrades, and with any change to the report layout
+    static final String RENDERER_VERSION = "3";
 
-        final HtmlRenderer htmlRenderer = HtmlRenderer.builder(OPTIONS).build();
-        final String html = htmlRenderer.render(document);
+    // the markdown constructs reports use: headings, html paragraphs, bold and italics, aligned tables
+    static final String WARM_UP_MARKDOWN = "# Warm Up Report\n\n<p>The beginning balance was $1.00\n\n\nThe ending balance was $2.00</p>\n\n"
+            + "<p><br/></p>\n\n| **Cash Flow** || \n| :--- | ---: |\n| Starting Balance | $1.00|\n| <br/> | <br/> |\n\n\n<p></p>\n\n"
+            + "<br/><br/>**Income By Category**\n\n| **Category** | **Subcategory** | **Amount** | **Category Total** |\n"
+            + "| :--- | :--- | ---: | ---: |\n| Dues |  |  |  1.00 |\n|  | Other  | 1.00 |  |\n|||||\n\n<p><i>Warm up</i></p>\n\n";
+    static final int WARM_UP_RENDERS = 3;
 
-        final String css =
-                """   
-                        @import url('http://fonts.cdnfonts.com/css/roboto-mono');
-                                                   
-                        * {
-                           font-family: 'Roboto Mono', mono, sans-serif;
-                        }
-                                        
-                        html {
-                            padding-left: 60px;
-                            padding-right: 60px;
-                        }
-                                        
-                        p {
-                            font-size: 0.8em;
-                            font-weight: 200;
-                        }
-                                                    
-                        h1 {
-                            font-size: 1.3em;
-                        }
-                                        
-                        table {
-                           border-spacing: 0 !important;
-                           border-bottom: 2px solid black;
-                           font-size: 0.8em;
-                           font-weight: 300;
-                        }
-                                        
-                        table thead tr th  {
-                            border-top: 2px solid #000000 !important;
-                            border-bottom: 2px solid #000000 !important;
-                            padding-left: 20px !important;
-                            white-space: nowrap; 
-                        }
-                                        
-                        table thead tr th:first-child {
-                            padding-left: 0 !important;
-                        }
-                                        
-                        table tbody tr td  {
-                            padding-left: 20px !important;   
-                            white-space: nowrap;                   
-                        }
-                                                    
-                        table tbody tr td:first-child  {
-                            padding-left: 0 !important;
-                        }
-                                                    
-                        td:empty:after {
-                            content: "\00a0";
-                        }
-                        """;
-
-
-
-        String htmlWithCss = PdfConverterExtension.embedCss(html, css);
-        PdfConverterExtension.exportToPdf(pdfPath.toAbsolutePath().toString(), htmlWithCss, "", OPTIONS);
+    static final String CSS_RESOURCE = "/report.css";
+    static final String FONT_FAMILY = "DejaVu Sans Mono";
+    static final String FONT_RESOURCE = "/fonts/DejaVuSansMono.ttf";
+    static final String BOLD_FONT_RESOURCE = "/fonts/DejaVuSansMono-Bold.ttf";
 
+    private static class InstanceHolder {
+        static final MarkdownToPdfConverter INSTANCE = new MarkdownToPdfConverter();
+    }
+
+    private final Parser markdownParser;
+    private final HtmlRenderer htmlRenderer;
+    private final String css;
+    private final byte[] font;
+    private final byte[] boldFont;
+    private final FSCacheEx<String, FSCacheValue> fontMetricsCache = new FSDefaultCacheStore();
+
+    MarkdownToPdfConverter() {
+        markdownParser = Parser.builder(OPTIONS).build();
+        htmlRenderer = HtmlRenderer.builder(OPTIONS).build();
+        css = new String(readResource(CSS_RESOURCE), StandardCharsets.UTF_8);
+        font = readResource(FONT_RESOURCE);
+        boldFont = readResource(BOLD_FONT_RESOURCE);
+    }
 
+    /**
+     * The shared, long-lived converter.
+     */
+    public static MarkdownToPdfConverter getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    public static boolean convertMarkdownToPdf(final String markdown, final Path pdfPath) throws IOException {
+        try (OutputStream pdfOutput = new BufferedOutputStream(Files.newOutputStream(pdfPath))) {
+            return convertMarkdownToPdf(markdown, pdfOutput);
+        }
+    }
+
+    /**
+     * Renders the markdown straight to the PDF output stream, without going through any intermediate files.
+     * The stream is not closed.
+     */
+    public static boolean convertMarkdownToPdf(final String markdown, final OutputStream pdfOutput) throws IOException {
+        getInstance().render(markdown, pdfOutput);
         return true;
     }
 
-    private static String readMarkdown(final Path markdownPath) throws IOException {
-        return Files.readString(markdownPath);
+    public void render(final String markdown, final OutputStream pdfOutput) throws IOException {
+        exportToPdf(renderHtml(markdown), pdfOutput);
+    }
+
+    /**
+     * Renders the markdown, adding the HTML and PDF stages to the run's metrics.
+     */
+    public void render(final String markdown, final OutputStream pdfOutput, final ReportMetrics metrics, final long rows) throws IOException {
+        ReportMetrics.Span span = metrics.begin(ReportMetrics.Stage.HTML_RENDER);
+        final String html = renderHtml(markdown);
+        span.end(rows);
+
+        span = metrics.begin(ReportMetrics.Stage.PDF_EXPORT);
+        exportToPdf(html, pdfOutput);
+        span.end(rows);
+    }
+
+    String renderHtml(final String markdown) {
+        final Node document = markdownParser.parse(markdown);
+        final String html = htmlRenderer.render(document);
+        return PdfConverterExtension.embedCss(html, css);
+    }
+
+    void exportToPdf(final String htmlWithCss, final OutputStream pdfOutput) throws IOException {
+        final PdfRendererBuilder builder = new PdfRendererBuilder();
+        builder.useCacheStore(PdfRendererBuilder.CacheStore.PDF_FONT_METRICS, fontMetricsCache);
+        builder.useFont(() -> new ByteArrayInputStream(font), FONT_FAMILY, 400, BaseRendererBuilder.FontStyle.NORMAL, true);
+        builder.useFont(() -> new ByteArrayInputStream(boldFont), FONT_FAMILY, 700, BaseRendererBuilder.FontStyle.NORMAL, true);
+        builder.withW3cDocument(new W3CDom().fromJsoup(Jsoup.parse(htmlWithCss)), "");
+        builder.toStream(pdfOutput);
+
+        try (PdfBoxRenderer renderer = builder.buildPdfRenderer()) {
+            renderer.layout();
+            renderer.createPDF();
+        }
+    }
+
+    /**
+     * Renders a tiny document shaped like a report, so that the class loading, font setup and much of the JIT compiling
+     * for the rendering stack is done before the first real report.
+     */
+    public void warmUp() {
+        try {
+            for (int i = 0; i < WARM_UP_RENDERS; i++) {
+                render(WARM_UP_MARKDOWN, OutputStream.nullOutputStream());
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static byte[] readResource(final String resource) {
+        try (InputStream inputStream = MarkdownToPdfConverter.class.getResourceAsStream(resource)) {
+            if (inputStream == null) {
+                throw new IllegalStateException("missing resource " + resource);
+            }
+            return inputStream.readAllBytes();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 }
@@ -0,0 +1,293 @@
+package radio.n2ehl;
+
+import radio.n2ehl.ReportGenerator.Transaction;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Reads a large CSV export on several cores. The export is cut into chunks on record boundaries, and each chunk is
+ * tokenized, classified and categorized into its own aggregate on a fork-join pool. The chunk aggregates are merged
+ * in file order, so the report comes out the same as reading the export from start to finish.
+ *
+ * A record ends at a line end outside quotes. With "" as the only way to put a quote inside a field, whether a byte
+ * is inside quotes depends only on how many quotes come before it, so the quotes of every chunk are counted at once
+ * and the counts added up to find where each chunk can start. Backslash escapes break that, so an export with a
+ * backslash after its first transaction is read sequentially instead.
+ * The rows up to the first transaction, including any header row, are read first to find the export's columns.
+ *
+ * The chunks are memory-mapped, so the OS pages them in and out, and each row is classified and categorized
+ * as soon as it's read, so beyond the mappings each worker only holds its chunk's aggregate.
+ */
+class ParallelCsvIngest {
+    // below this size, splitting the export costs more than it saves
+    static final long MIN_PARALLEL_BYTES = 16L * 1024 * 1024;
+    // more chunks than workers, so one slow chunk doesn't leave the other workers idle
+    static final int CHUNKS_PER_WORKER = 4;
+    // each chunk is memory-mapped whole, and a mapping can't reach 2 GB
+    static final long MAX_CHUNK_BYTES = 256L * 1024 * 1024;
+    // how far into the export to look for the header row and first transaction
+    static final int HEAD_BYTES = 1024 * 1024;
+    static final long PROGRESS_POLL_MILLIS = 100;
+
+    private final Path csvPath;
+    private final Charset charset;
+    private final ForkJoinPool pool;
+
+    private final QuickenRowClassifier classifier = new QuickenRowClassifier();
+    private final List<Transaction> headTransactions = new ArrayList<>();
+    private long headRows = 0;
+    private long headEnd = 0;
+
+    // the head and quote scans are only counted in the run's metrics if the export is read in parallel after all
+    private final ReportMetrics splitMetrics = new ReportMetrics();
+    private final AtomicLong chunkRows = new AtomicLong();
+    private volatile boolean cancelled = false;
+
+    ParallelCsvIngest(final Path csvPath, final Charset charset, final ForkJoinPool pool) {
+        this.csvPath = csvPath;
+        this.charset = charset;
+        this.pool = pool;
+    }
+
+    /**
+     * Whether the export is big enough, and the pool has the workers, for reading it in parallel to pay off.
+     */
+    static boolean isWorthwhile(final Path csvPath, final Charset charset, final ForkJoinPool pool) throws IOException {
+        return pool.getParallelism() > 1 && MappedCsvTokenizer.supports(charset) && Files.size(csvPath) >= MIN_PARALLEL_BYTES;
+    }
+
+    /**
+     * Reads the export into the aggregate and returns the number of rows read, or returns -1 without touching
+     * the aggregate if the export can't be split safely and has to be read sequentially.
+     * Progress is reported, in rows, on the calling thread. If the calling thread is interrupted,
+     * reading stops with a CancellationException.
+     */
+    long ingest(final ReportAggregate aggregate, final ReportMetrics metrics, final LongConsumer progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(csvPath, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (!readHead(channel, size)) {
+                return -1;
+            }
+            final List<Long> boundaries = findChunkBoundaries(channel, size, progress);
+            if (boundaries == null) {
+                return -1;
+            }
+
+            final List<ForkJoinTask<ChunkResult>> chunks = new ArrayList<>();
+            for (int i = 0; i + 1 < boundaries.size(); i++) {
+                final long from = boundaries.get(i);
+                final long to = boundaries.get(i + 1);
+                final QuickenRowClassifier chunkClassifier = classifier.continuing();
+                chunks.add(pool.submit(() -> readChunk(channel, from, to, chunkClassifier, aggregate.retainTransactions)));
+            }
+
+            final List<ChunkResult> results = new ArrayList<>(chunks.size());
+            for (ForkJoinTask<ChunkResult> chunk : chunks) {
+                results.add(await(chunk, progress));
+            }
+
+            final ReportMetrics.Span span = metrics.begin(ReportMetrics.Stage.CATEGORIZATION);
+            aggregate.categorizeAll(headTransactions);
+            for (ChunkResult result : results) {
+                aggregate.merge(result.aggregate);
+            }
+            span.end(headTransactions.size());
+            metrics.add(splitMetrics);
+            for (ChunkResult result : results) {
+                metrics.add(result.metrics);
+            }
+            return headRows + chunkRows.get();
+        }
+    }
+
+    /**
+     * Reads rows up to and including the first transaction, returning false if its record doesn't end within HEAD_BYTES.
+     */
+    private boolean readHead(final FileChannel channel, final long size) {
+        final int headLength = (int) Math.min(size, HEAD_BYTES);
+        final ReportMetrics.Span span = splitMetrics.begin(ReportMetrics.Stage.CSV_READ);
+        try (MappedCsvTokenizer head = MappedCsvTokenizer.region(channel, 0, headLength, charset, classifier::neededColumns)) {
+            String[] row;
+            while (classifier.neededColumns() == null && (row = head.readNext()) != null) {
+                headRows++;
+                final Transaction transaction = classifier.parseRow(row);
+                if (transaction != null) {
+                    headTransactions.add(transaction);
+                }
+            }
+            headEnd = head.consumed();
+        } catch (IOException ex) {
+            // a quoted field running past the end of the head, the sequential read will tell whether it's really unterminated
+            return false;
+        } finally {
+            span.end(headRows);
+        }
+        // the record has to have ended with a line end inside the head, rather than where the head was cut off
+        return classifier.neededColumns() != null && headEnd < headLength;
+    }
+
+    /**
+     * The offsets the chunks start at after the head, followed by the end of the file,
+     * or null if the export has a backslash or a record too long to map.
+     */
+    private List<Long> findChunkBoundaries(final FileChannel channel, final long size, final LongConsumer progress) throws IOException {
+        final long remaining = size - headEnd;
+        final int rangeCount = (int) Math.max((long) pool.getParallelism() * CHUNKS_PER_WORKER, (remaining + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+        final List<ForkJoinTask<QuoteScan>> scans = new ArrayList<>(rangeCount);
+        for (int i = 0; i < rangeCount; i++) {
+            final long from = headEnd + remaining * i / rangeCount;
+            final long to = headEnd + remaining * (i + 1) / rangeCount;
+            scans.add(pool.submit(() -> QuoteScan.scan(channel, from, to, size)));
+        }
+
+        final List<Long> boundaries = new ArrayList<>();
+        boundaries.add(headEnd);
+        boolean inQuotes = false;
+        for (int i = 0; i < rangeCount; i++) {
+            final QuoteScan scan = await(scans.get(i), progress);
+            splitMetrics.add(scan.metrics);
+            if (scan.escaped) {
+                cancelled = true;
+                return null;
+            }
+            // the first range starts on the head's last line end, the others on the first line end outside quotes in them
+            if (i > 0) {
+                final long lineEnd = scan.firstLineEnd[inQuotes ? 1 : 0];
+                if (lineEnd > boundaries.get(boundaries.size() - 1) && lineEnd < size) {
+                    boundaries.add(lineEnd);
+                }
+            }
+            if (scan.quotes % 2 == 1) {
+                inQuotes = !inQuotes;
+            }
+        }
+        boundaries.add(size);
+
+        for (int i = 0; i + 1 < boundaries.size(); i++) {
+            if (boundaries.get(i + 1) - boundaries.get(i) >= Integer.MAX_VALUE) {
+                return null;
+            }
+        }
+        return boundaries;
+    }
+
+    private ChunkResult readChunk(final FileChannel channel, final long from, final long to, final QuickenRowClassifier chunkClassifier,
+                                  final boolean retainTransactions) throws IOException {
+        final ChunkResult result = new ChunkResult(new ReportAggregate(retainTransactions), new ReportMetrics());
+        try (MappedCsvTokenizer csvRows = MappedCsvTokenizer.region(channel, from, to - from, charset, chunkClassifier::neededColumns)) {
+            // categorizing here, row by row, is cheap next to reading; the chunks are already the parallelism
+            final ReportMetrics.Interleaved rowStages = result.metrics.interleave();
+            long rows = 0;
+            String[] row;
+            while ((row = csvRows.readNext()) != null) {
+                rowStages.lap(ReportMetrics.Stage.CSV_READ, 1);
+                if (++rows % ReportGenerator.PROGRESS_INTERVAL == 0) {
+                    if (cancelled) {
+                        throw new CancellationException("report generation was cancelled");
+                    }
+                    chunkRows.addAndGet(ReportGenerator.PROGRESS_INTERVAL);
+                }
+
+                final Transaction transaction = chunkClassifier.parseRow(row);
+                rowStages.lap(ReportMetrics.Stage.CLASSIFICATION, 1);
+                if (transaction != null) {
+                    result.aggregate.categorizeTransaction(transaction);
+                    rowStages.lap(ReportMetrics.Stage.CATEGORIZATION, 1);
+                }
+            }
+            rowStages.lap(ReportMetrics.Stage.CSV_READ, 0);
+            rowStages.end();
+            chunkRows.addAndGet(rows % ReportGenerator.PROGRESS_INTERVAL);
+        }
+        return result;
+    }
+
+    /**
+     * Waits for a task, reporting progress meanwhile. A failed or cancelled task stops the rest.
+     */
+    private <T> T await(final ForkJoinTask<T> task, final LongConsumer progress) throws IOException {
+        while (true) {
+            try {
+                return task.get(PROGRESS_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                progress.accept(headRows + chunkRows.get());
+            } catch (InterruptedException ex) {
+                cancelled = true;
+                Thread.currentThread().interrupt();
+                throw new CancellationException("report generation was cancelled");
+            } catch (ExecutionException ex) {
+                cancelled = true;
+                // the pool wraps what a Callable throws in RuntimeExceptions, report the IOException itself
+                for (Throwable cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                }
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            }
+        }
+    }
+
+    private static class ChunkResult {
+        final ReportAggregate aggregate;
+        final ReportMetrics metrics;
+
+        ChunkResult(final ReportAggregate aggregate, final ReportMetrics metrics) {
+            this.aggregate = aggregate;
+            this.metrics = metrics;
+        }
+    }
+
+    /**
+     * The quotes in one range of the export, and where its first line end is, counting the range as starting
+     * outside quotes (firstLineEnd[0]) or inside them (firstLineEnd[1]).
+     */
+    private static class QuoteScan {
+        final ReportMetrics metrics = new ReportMetrics();
+        long quotes = 0;
+        boolean escaped = false;
+        // just past the line end, including the LF of a CRLF, or -1 if there isn't one
+        final long[] firstLineEnd = {-1, -1};
+
+        static QuoteScan scan(final FileChannel channel, final long from, final long to, final long size) throws IOException {
+            final QuoteScan scan = new QuoteScan();
+            final ReportMetrics.Span span = scan.metrics.begin(ReportMetrics.Stage.CSV_READ);
+            // one byte past the range, to see the LF of a CRLF that straddles the end
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(to + 1, size) - from);
+            final int length = (int) (to - from);
+            for (int i = 0; i < length; i++) {
+                final byte b = buffer.get(i);
+                if (b == MappedCsvTokenizer.QUOTE) {
+                    scan.quotes++;
+                } else if (b == MappedCsvTokenizer.ESCAPE) {
+                    scan.escaped = true;
+                    break;
+                } else if ((b == MappedCsvTokenizer.LF || b == MappedCsvTokenizer.CR) && scan.firstLineEnd[(int) (scan.quotes % 2)] < 0) {
+                    final boolean crlf = b == MappedCsvTokenizer.CR && i + 1 < buffer.limit() && buffer.get(i + 1) == MappedCsvTokenizer.LF;
+                    scan.firstLineEnd[(int) (scan.quotes % 2)] = from + i + (crlf ? 2 : 1);
+                }
+            }
+            span.end(0);
+            return scan;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package radio.n2ehl;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Positions of the columns the report reads from a Quicken CSV export.
+ * They're resolved from the export's header row, so a reordered export still reads correctly.
+ * Exports without a recognizable header row fall back to Quicken's usual layout.
+ * A column that's missing from the export has position -1.
+ */
+@Data
+@Builder
+class QuickenColumns {
+    static final int COL_LABEL = 0;
+    static final int COL_DATE = 3;
+    static final int COL_PAYEE = 5;
+    static final int COL_CATEGORY = 6;
+    static final int COL_AMOUNT = 9;
+    static final int COL_ACCOUNT = 10;
+    static final int COL_NOTES = 11;
+
+    static final QuickenColumns DEFAULT = QuickenColumns.builder()
+            .date(COL_DATE)
+            .payee(COL_PAYEE)
+            .category(COL_CATEGORY)
+            .amount(COL_AMOUNT)
+            .account(COL_ACCOUNT)
+            .notes(COL_NOTES)
+            .build();
+
+    public final int date;
+    public final int payee;
+    public final int category;
+    public final int amount;
+    public final int account;
+    public final int notes;
+
+    /**
+     * Resolves the column positions from a header row,
+     * returning null if the row isn't a header (it needs at least Date, Category and Amount columns).
+     */
+    static QuickenColumns fromHeader(final String[] row) {
+        int date = -1, payee = -1, category = -1, amount = -1, account = -1, notes = -1;
+
+        for (int i = 0; i < row.length; i++) {
+            final String name = row[i].trim();
+            if (name.equalsIgnoreCase("Date")) {
+                date = i;
+            } else if (name.equalsIgnoreCase("Payee") || name.equalsIgnoreCase("Description")) {
+                payee = i;
+            } else if (name.equalsIgnoreCase("Category")) {
+                category = i;
+            } else if (name.equalsIgnoreCase("Amount")) {
+                amount = i;
+            } else if (name.equalsIgnoreCase("Account")) {
+                account = i;
+            } else if (name.equalsIgnoreCase("Memo") || name.equalsIgnoreCase("Notes") || name.equalsIgnoreCase("Memo/Notes")) {
+                notes = i;
+            }
+        }
+
+        if (date < 0 || category < 0 || amount < 0) {
+            return null;
+        }
+
+        return new QuickenColumns(date, payee, category, amount, account, notes);
+    }
+}
@@ -0,0 +1,198 @@
+package radio.n2ehl;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Classifies the rows of one Quicken CSV export, turning the transaction rows into Transactions.
+ *
+ * Column positions come from the export's header row when it has one.
+ * Each row is classified with a single look at its label, category and date cells,
+ * and dates are parsed in place rather than by splitting strings.
+ * A classifier holds the column positions of one export, so use a new one for every export.
+ */
+class QuickenRowClassifier {
+    static final String OTHER_SUBCATEGORY = "Other";
+
+    private static final String[] SUMMARY_LABELS = {"Total Inflows:", "Total Outflows:", "Net Total:"};
+    private static final String TRANSFER = "Transfer";
+
+    enum RowType {
+        HEADER,
+        TRANSFER,
+        SUMMARY,
+        TRANSACTION,
+        NOISE
+    }
+
+    private QuickenColumns columns = QuickenColumns.DEFAULT;
+    private boolean seenTransaction = false;
+    private boolean[] neededColumns = null;
+
+    QuickenColumns getColumns() {
+        return columns;
+    }
+
+    /**
+     * A classifier for rows further on in the same export, after this one has found its columns and first transaction.
+     */
+    QuickenRowClassifier continuing() {
+        final QuickenRowClassifier continuing = new QuickenRowClassifier();
+        continuing.columns = columns;
+        continuing.seenTransaction = seenTransaction;
+        return continuing;
+    }
+
+    /**
+     * The columns that classifying and converting rows looks at from now on,
+     * or null while every column is still needed to look for the header row.
+     */
+    boolean[] neededColumns() {
+        if (!seenTransaction) {
+            return null;
+        }
+        if (neededColumns == null) {
+            final int[] used = {QuickenColumns.COL_LABEL, columns.date, columns.payee, columns.category, columns.amount, columns.account, columns.notes};
+            neededColumns = new boolean[Arrays.stream(used).max().getAsInt() + 1];
+            for (int column : used) {
+                if (column >= 0) {
+                    neededColumns[column] = true;
+                }
+            }
+        }
+        return neededColumns;
+    }
+
+    /**
+     * Classifies a single CSV row, returning the transaction it describes,
+     * or null if the row is a transfer, a summary line, or otherwise not a transaction.
+     */
+    ReportGenerator.Transaction parseRow(final String[] row) {
+        return classify(row) == RowType.TRANSACTION ? toTransaction(row) : null;
+    }
+
+    RowType classify(final String[] row) {
+        if (!seenTransaction) {
+            final QuickenColumns headerColumns = QuickenColumns.fromHeader(row);
+            if (headerColumns != null) {
+                columns = headerColumns;
+                return RowType.HEADER;
+            }
+        }
+
+        if (isTransfer(cell(row, columns.category))) {
+            return RowType.TRANSFER; // ignore transfers
+        }
+
+        if (isSummary(cell(row, QuickenColumns.COL_LABEL))) {
+            return RowType.SUMMARY; // ignore Quicken's summary lines, totals are calculated from the transactions
+        }
+
+        if (isDate(cell(row, columns.date))) {
+            seenTransaction = true;
+            return RowType.TRANSACTION;
+        }
+
+        return RowType.NOISE;
+    }
+
+    /**
+     * Builds the Transaction for a row that classified as RowType.TRANSACTION.
+     */
+    ReportGenerator.Transaction toTransaction(final String[] row) {
+        final String categoryCell = cell(row, columns.category);
+        final int colon = categoryCell.indexOf(':');
+
+        return ReportGenerator.Transaction.builder()
+                .transactionDate(parseDate(cell(row, columns.date)))
+                .payee(cell(row, columns.payee).trim())
+                .category(colon < 0 ? categoryCell : categoryCell.substring(0, colon))
+                .subCategory(subcategory(categoryCell, colon))
+                .amount(Cents.parse(cell(row, columns.amount)))
+                .account(cell(row, columns.account))
+                .notes(cell(row, columns.notes).trim())
+                .build();
+    }
+
+    static String cell(final String[] row, final int column) {
+        return column >= 0 && column < row.length ? row[column] : "";
+    }
+
+    /**
+     * The second level of a "Category:Subcategory[:...]" category, or "Other" if there isn't one.
+     */
+    static String subcategory(final String category, final int colon) {
+        if (colon < 0) {
+            return OTHER_SUBCATEGORY;
+        }
+
+        final int nextColon = category.indexOf(':', colon + 1);
+        final String subcategory = category.substring(colon + 1, nextColon < 0 ? category.length() : nextColon);
+        if (subcategory.isEmpty() && (nextColon < 0 || category.substring(nextColon).chars().allMatch(c -> c == ':'))) {
+            return OTHER_SUBCATEGORY;
+        }
+        return subcategory;
+    }
+
+    static boolean isTransfer(final String category) {
+        for (int colon = category.indexOf(':'); colon >= 0; colon = category.indexOf(':', colon + 1)) {
+            if (colon >= TRANSFER.length() && category.startsWith(TRANSFER, colon - TRANSFER.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isSummary(final String label) {
+        for (String summaryLabel : SUMMARY_LABELS) {
+            if (label.contains(summaryLabel)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks for a month/day/year date, with a 1 or 2 digit month and day and a 4 digit year.
+     */
+    static boolean isDate(final String str) {
+        final int length = str.length();
+        if (length < 8 || length > 10) {
+            return false;
+        }
+
+        final int firstSlash = str.indexOf('/');
+        final int secondSlash = firstSlash < 0 ? -1 : str.indexOf('/', firstSlash + 1);
+        if (firstSlash < 1 || firstSlash > 2 || secondSlash - firstSlash < 2 || secondSlash - firstSlash > 3 || length - secondSlash != 5) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (i != firstSlash && i != secondSlash && !Character.isDigit(str.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a date that passed isDate, incoming format is month/day/year.
+     */
+    static LocalDate parseDate(final String str) {
+        final int firstSlash = str.indexOf('/');
+        final int secondSlash = str.indexOf('/', firstSlash + 1);
+        return LocalDate.of(
+                parseDigits(str, secondSlash + 1, str.length()),
+                parseDigits(str, 0, firstSlash),
+                parseDigits(str, firstSlash + 1, secondSlash)
+        );
+    }
+
+    private static int parseDigits(final String str, final int start, final int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (str.charAt(i) - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,215 @@
+package radio.n2ehl;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
+
+import radio.n2ehl.ReportGenerator.Category;
+import radio.n2ehl.ReportGenerator.Payee;
+import radio.n2ehl.ReportGenerator.Subcategory;
+import radio.n2ehl.ReportGenerator.Transaction;
+
+/**
+ * The income and expense category trees for a set of transactions, built in a single pass
+ * that routes each transaction to the credit or debit side as it goes.
+ *
+ * The same pass totals each payee's inflows and outflows, and keeps the largest transactions in a min-heap
+ * of TOP_COUNT, so the top payees and largest transactions never need the transactions sorted.
+ *
+ * Large batches are aggregated in parallel on the fork-join pool, each worker building its own aggregate
+ * that is then merged in encounter order. Totals are exact long cents, and merging in order inserts
+ * categories in the same order a single thread would, so the result doesn't depend on the thread count.
+ * Ties among the largest transactions are broken on their other fields, for the same reason.
+ */
+class ReportAggregate {
+    // below this many transactions, splitting the work costs more than it saves
+    static final int PARALLEL_THRESHOLD = 16_384;
+
+    // how many payees and transactions the report lists as the top ones
+    static final int TOP_COUNT = 10;
+
+    // by size, then earliest first and alphabetically, so any two different transactions are ordered
+    static final Comparator<Transaction> BY_SIZE = Comparator
+            .comparingLong((Transaction transaction) -> Math.abs(transaction.amount))
+            .thenComparing(transaction -> transaction.transactionDate, Comparator.reverseOrder())
+            .thenComparing(transaction -> transaction.payee, Comparator.nullsLast(Comparator.<String>reverseOrder()))
+            .thenComparing(transaction -> transaction.category, Comparator.nullsLast(Comparator.<String>reverseOrder()))
+            .thenComparing(transaction -> transaction.subCategory, Comparator.nullsLast(Comparator.<String>reverseOrder()))
+            .thenComparing(transaction -> transaction.account, Comparator.nullsLast(Comparator.<String>reverseOrder()))
+            .thenComparing(transaction -> transaction.notes, Comparator.nullsLast(Comparator.<String>reverseOrder()))
+            .thenComparingLong(transaction -> transaction.amount);
+
+    // keeping every row in Subcategory.transactions makes memory grow with the size of the export
+    final boolean retainTransactions;
+    // the strings of this aggregate's transaction tables
+    final TransactionTable.Dictionary dictionary = new TransactionTable.Dictionary();
+
+    LocalDate firstTransactionDate = null;
+    final Map<String, Category> creditCategories = new HashMap<>();
+    final Map<String, Category> debitCategories = new HashMap<>();
+    final Map<String, Payee> payees = new HashMap<>();
+    // the TOP_COUNT largest transactions, smallest first so it's the one a larger transaction replaces
+    final PriorityQueue<Transaction> largestTransactions = new PriorityQueue<>(TOP_COUNT + 1, BY_SIZE);
+
+    ReportAggregate(final boolean retainTransactions) {
+        this.retainTransactions = retainTransactions;
+    }
+
+    void categorizeAll(final List<Transaction> transactions) {
+        if (transactions.size() < PARALLEL_THRESHOLD) {
+            for (Transaction transaction : transactions) {
+                categorizeTransaction(transaction);
+            }
+            return;
+        }
+
+        merge(transactions.parallelStream().collect(
+                () -> new ReportAggregate(retainTransactions),
+                ReportAggregate::categorizeTransaction,
+                ReportAggregate::merge));
+    }
+
+    void categorizeTransaction(final Transaction transaction) {
+        if (firstTransactionDate == null) {
+            firstTransactionDate = transaction.transactionDate;
+        }
+
+        if (transaction.amount >= 0) {
+            categorizeTransaction(creditCategories, transaction);
+        } else {
+            categorizeTransaction(debitCategories, transaction);
+        }
+        addToPayee(transaction.payee != null ? transaction.payee : "", transaction.amount);
+        offerLargest(transaction);
+    }
+
+    void addToPayee(final String name, final long amount) {
+        Payee payee = payees.get(name);
+        if (payee == null) {
+            payee = new Payee(name, 0, 0);
+            payees.put(name, payee);
+        }
+        if (amount >= 0) {
+            payee.inflow = Cents.add(payee.inflow, amount);
+        } else {
+            payee.outflow = Cents.add(payee.outflow, amount);
+        }
+    }
+
+    void offerLargest(final Transaction transaction) {
+        if (largestTransactions.size() < TOP_COUNT) {
+            largestTransactions.add(transaction);
+        } else if (BY_SIZE.compare(transaction, largestTransactions.peek()) > 0) {
+            largestTransactions.poll();
+            largestTransactions.add(transaction);
+        }
+    }
+
+    /**
+     * The TOP_COUNT payees with the most money in (or out, by passing Payee::getOutflow), largest first.
+     * Payees with none are left out.
+     */
+    List<Payee> topPayees(final ToLongFunction<Payee> flow) {
+        final Comparator<Payee> bySize = Comparator
+                .comparingLong((Payee payee) -> Math.abs(flow.applyAsLong(payee)))
+                .thenComparing(Payee::getName, Comparator.reverseOrder());
+        final PriorityQueue<Payee> top = new PriorityQueue<>(TOP_COUNT + 1, bySize);
+        for (Payee payee : payees.values()) {
+            if (flow.applyAsLong(payee) == 0) {
+                continue;
+            }
+            if (top.size() < TOP_COUNT) {
+                top.add(payee);
+            } else if (bySize.compare(payee, top.peek()) > 0) {
+                top.poll();
+                top.add(payee);
+            }
+        }
+        return drainLargestFirst(top);
+    }
+
+    /**
+     * The largest transactions, largest first.
+     */
+    List<Transaction> largestTransactions() {
+        return drainLargestFirst(new PriorityQueue<>(largestTransactions));
+    }
+
+    private static <T> List<T> drainLargestFirst(final PriorityQueue<T> heap) {
+        final List<T> largestFirst = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            largestFirst.add(heap.poll());
+        }
+        Collections.reverse(largestFirst);
+        return largestFirst;
+    }
+
+    void categorizeTransaction(final Map<String, Category> categoryMap, final Transaction transaction) {
+        Category category = categoryMap.get(transaction.category);
+        if (category == null) {
+            category = new Category(transaction.category, 0, new HashMap<>());
+            categoryMap.put(transaction.category, category);
+        }
+        Subcategory subcategory = category.subcategories.get(transaction.subCategory);
+        if (subcategory == null) {
+            subcategory = new Subcategory(transaction.subCategory, 0, new TransactionTable(dictionary));
+            category.subcategories.put(subcategory.name, subcategory);
+        }
+        if (retainTransactions) {
+            subcategory.transactions.add(transaction);
+        }
+        subcategory.total = Cents.add(subcategory.total, transaction.amount);
+        category.total = Cents.add(category.total, transaction.amount);
+    }
+
+    /**
+     * Adds in the aggregate of the transactions that came after this one's.
+     * The later aggregate's categories are taken over, so it shouldn't be used afterwards.
+     */
+    void merge(final ReportAggregate later) {
+        if (firstTransactionDate == null) {
+            firstTransactionDate = later.firstTransactionDate;
+        }
+        mergeCategories(creditCategories, later.creditCategories);
+        mergeCategories(debitCategories, later.debitCategories);
+        later.payees.forEach((name, laterPayee) -> {
+            final Payee payee = payees.get(name);
+            if (payee == null) {
+                payees.put(name, laterPayee);
+            } else {
+                payee.inflow = Cents.add(payee.inflow, laterPayee.inflow);
+                payee.outflow = Cents.add(payee.outflow, laterPayee.outflow);
+            }
+        });
+        for (Transaction transaction : later.largestTransactions) {
+            offerLargest(transaction);
+        }
+    }
+
+    static void mergeCategories(final Map<String, Category> categoryMap, final Map<String, Category> laterCategoryMap) {
+        laterCategoryMap.forEach((name, laterCategory) -> {
+            final Category category = categoryMap.get(name);
+            if (category == null) {
+                categoryMap.put(name, laterCategory);
+                return;
+            }
+
+            category.total = Cents.add(category.total, laterCategory.total);
+            laterCategory.subcategories.forEach((subcategoryName, laterSubcategory) -> {
+                final Subcategory subcategory = category.subcategories.get(subcategoryName);
+                if (subcategory == null) {
+                    category.subcategories.put(subcategoryName, laterSubcategory);
+                } else {
+                    subcategory.total = Cents.add(subcategory.total, laterSubcategory.total);
+                    subcategory.transactions.addAll(laterSubcategory.transactions);
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,309 @@
+package radio.n2ehl;
+
+import org.apache.logging.log4j.LogManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Previously rendered report PDFs, so asking for the same report again doesn't run the pipeline again.
+ *
+ * Entries are keyed by a SHA-256 of everything that goes into a report: the CSV bytes, the balances,
+ * the ~/.treasurer-report settings, the renderer version and a fingerprint of the classes, stylesheet and fonts that
+ * generate reports, so a new build that may lay reports out differently doesn't serve the old PDFs. A changed input
+ * is simply a different key, nothing is ever invalidated. The cache directory ("cache_dir", by default ~/.treasurer-report-cache) is kept
+ * under "cache_max_mb" megabytes (256 by default, 0 turns the cache off) by evicting the least recently used PDFs.
+ */
+public class ReportCache {
+    static final String CACHE_DIR_SETTING = "cache_dir";
+    static final String DEFAULT_CACHE_DIR = ".treasurer-report-cache";
+    static final String CACHE_MAX_MB_SETTING = "cache_max_mb";
+    static final long DEFAULT_MAX_MB = 256;
+    static final String EXTENSION = ".pdf";
+
+    // the classes of the package, with their nested classes, that can't change what a report says or looks like:
+    // the windows, the server, the command line and what schedules or caches reports. Every other class is part
+    // of the generator fingerprint, so a class added to the generator is covered without being listed anywhere
+    private static final Set<String> NON_GENERATOR_CLASSES = Set.of(
+            "TreasurersReport", "MoneyField", "SummaryTask", "TransactionDrillDown", "TransactionRows", "ReportTask",
+            "ReportServer", "ExportWatcher", "ReportCli", "BatchReportRunner", "ReportCache");
+    // the resources reports are rendered with, also part of the generator fingerprint
+    private static final List<String> GENERATOR_RESOURCES = List.of(
+            MarkdownToPdfConverter.CSS_RESOURCE, MarkdownToPdfConverter.FONT_RESOURCE, MarkdownToPdfConverter.BOLD_FONT_RESOURCE);
+
+    // eviction lists and deletes files, one at a time is plenty
+    private static final Object EVICTION_LOCK = new Object();
+
+    private final Path directory;
+    private final long maxBytes;
+
+    public ReportCache(final Path directory, final long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public static ReportCache fromConfig(final ReportConfig config) {
+        final String cacheDir = config.get(CACHE_DIR_SETTING);
+        return new ReportCache(cacheDir != null ? Path.of(cacheDir.trim()) : Path.of(System.getProperty("user.home"), DEFAULT_CACHE_DIR),
+                maxMb(config) * 1024 * 1024);
+    }
+
+    /**
+     * The "cache_max_mb" setting, a whole number of megabytes, or DEFAULT_MAX_MB by default.
+     */
+    static long maxMb(final ReportConfig config) {
+        final String setting = config.get(CACHE_MAX_MB_SETTING);
+        if (setting == null || setting.isBlank()) {
+            return DEFAULT_MAX_MB;
+        }
+
+        try {
+            final long maxMb = Long.parseLong(setting.trim());
+            // in bytes it has to fit a long
+            if (maxMb >= 0 && maxMb <= Long.MAX_VALUE / (1024 * 1024)) {
+                return maxMb;
+            }
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        throw new IllegalArgumentException("invalid " + CACHE_MAX_MB_SETTING + ": " + setting + " (megabytes, 0 turns the cache off)");
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * The cache key for a report on a CSV export.
+     */
+    public static String key(final Path csvPath, final BigDecimal startingBalance, final BigDecimal endingBalance, final ReportConfig config) throws IOException {
+        return key(List.of(csvPath), startingBalance, endingBalance, config);
+    }
+
+    /**
+     * The cache key for a report merged from several CSV exports, in the order given.
+     */
+    public static String key(final List<Path> csvPaths, final BigDecimal startingBalance, final BigDecimal endingBalance, final ReportConfig config) throws IOException {
+        return key(csvPaths, startingBalance, endingBalance, config, generatorVersion());
+    }
+
+    /**
+     * The renderer version and the generator fingerprint, which together version the reports this build renders.
+     */
+    static String generatorVersion() {
+        return MarkdownToPdfConverter.RENDERER_VERSION + "/" + GeneratorFingerprint.VALUE;
+    }
+
+    static String key(final List<Path> csvPaths, final BigDecimal startingBalance, final BigDecimal endingBalance, final ReportConfig config,
+                      final String generatorVersion) throws IOException {
+        final MessageDigest digest = sha256();
+        update(digest, generatorVersion);
+        // 100 and 100.00 are the same balance
+        update(digest, startingBalance.stripTrailingZeros().toPlainString());
+        update(digest, endingBalance.stripTrailingZeros().toPlainString());
+        new TreeMap<>(config.getSettings()).forEach((key, value) -> update(digest, key + "=" + value));
+
+        final byte[] buffer = new byte[65_536];
+        for (Path csvPath : csvPaths) {
+            // with several exports, where one ends and the next begins is part of the key
+            if (csvPaths.size() > 1) {
+                update(digest, String.valueOf(Files.size(csvPath)));
+            }
+            try (InputStream csvInput = Files.newInputStream(csvPath)) {
+                int read;
+                while ((read = csvInput.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * A SHA-256 of the generator's classes, stylesheet and fonts as loaded, worked out once.
+     * The classes are listed from wherever they were loaded: a directory, a jar or the runtime image.
+     */
+    static class GeneratorFingerprint {
+        static final String VALUE = compute();
+
+        private static String compute() {
+            final MessageDigest digest = sha256();
+            try {
+                final Path location = Path.of(ReportCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+                if (Files.isDirectory(location)) {
+                    updateClasses(digest, location);
+                } else {
+                    try (FileSystem jar = FileSystems.newFileSystem(location)) {
+                        updateClasses(digest, jar.getPath("/"));
+                    }
+                }
+
+                for (String resource : GENERATOR_RESOURCES) {
+                    try (InputStream resourceInput = ReportCache.class.getResourceAsStream(resource)) {
+                        if (resourceInput == null) {
+                            throw new IllegalStateException("missing resource " + resource);
+                        }
+                        update(digest, resource);
+                        digest.update(resourceInput.readAllBytes());
+                    }
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (URISyntaxException ex) {
+                throw new IllegalStateException("can't locate the report generator's classes", ex);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        }
+
+        private static void updateClasses(final MessageDigest digest, final Path root) throws IOException {
+            final List<Path> classFiles;
+            try (Stream<Path> files = Files.list(root.resolve(ReportCache.class.getPackageName().replace('.', '/')))) {
+                classFiles = files
+                        .filter(path -> isGeneratorClass(path.getFileName().toString()))
+                        .sorted(Comparator.comparing(path -> path.getFileName().toString()))
+                        .collect(Collectors.toList());
+            }
+            for (Path classFile : classFiles) {
+                update(digest, classFile.getFileName().toString());
+                digest.update(Files.readAllBytes(classFile));
+            }
+        }
+
+        static boolean isGeneratorClass(final String fileName) {
+            if (!fileName.endsWith(".class")) {
+                return false;
+            }
+            final int nested = fileName.indexOf('$');
+            final String topLevelClass = fileName.substring(0, nested >= 0 ? nested : fileName.length() - ".class".length());
+            return !NON_GENERATOR_CLASSES.contains(topLevelClass);
+        }
+    }
+
+    private static void update(final MessageDigest digest, final String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    Path entryPath(final String key) {
+        return directory.resolve(key + EXTENSION);
+    }
+
+    /**
+     * Copies the cached PDF for the key to pdfPath, returning false if there isn't one, or if it can't be read,
+     * so the report is rendered instead. As with a rendered PDF, whatever was at pdfPath is only replaced by a whole copy.
+     */
+    public boolean copyTo(final String key, final Path pdfPath) {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        final Path entry = entryPath(key);
+        try {
+            // the modification time is the last use, for eviction
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            // by way of a pending file, so a copy cut short never leaves a truncated PDF at pdfPath
+            ReportPipeline.writeAtomically(pdfPath, pdfOutput -> Files.copy(entry, pdfOutput));
+            return true;
+        } catch (NoSuchFileException ex) {
+            return false;
+        } catch (IOException ex) {
+            LogManager.getLogger().warn("could not use the cached report " + entry, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Stores a rendered PDF under the key, then evicts the least recently used PDFs if the cache has grown too large.
+     * The PDF has already been written, so a failure to cache it is only logged.
+     */
+    public void put(final String key, final Path pdfPath) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(directory);
+            final Path pending = Files.createTempFile(directory, key, ".pending");
+            try {
+                Files.copy(pdfPath, pending, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(pending, entryPath(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(pending);
+            }
+            evict();
+        } catch (IOException ex) {
+            LogManager.getLogger().warn("could not cache the report " + pdfPath + " in " + directory, ex);
+        }
+    }
+
+    void evict() throws IOException {
+        synchronized (EVICTION_LOCK) {
+            final List<Path> entries = new ArrayList<>();
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).forEach(entries::add);
+            }
+
+            long totalBytes = 0;
+            final List<BasicFileAttributes> attributes = new ArrayList<>();
+            for (Iterator<Path> entryIterator = entries.iterator(); entryIterator.hasNext(); ) {
+                final BasicFileAttributes entryAttributes;
+                try {
+                    entryAttributes = Files.readAttributes(entryIterator.next(), BasicFileAttributes.class);
+                } catch (NoSuchFileException ex) {
+                    // evicted by another process since the listing
+                    entryIterator.remove();
+                    continue;
+                }
+                attributes.add(entryAttributes);
+                totalBytes += entryAttributes.size();
+            }
+            if (totalBytes <= maxBytes) {
+                return;
+            }
+
+            final List<Integer> leastRecentlyUsed = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                leastRecentlyUsed.add(i);
+            }
+            leastRecentlyUsed.sort(Comparator.comparing(i -> attributes.get(i).lastModifiedTime()));
+            for (int i : leastRecentlyUsed) {
+                if (totalBytes <= maxBytes) {
+                    break;
+                }
+                Files.deleteIfExists(entries.get(i));
+                totalBytes -= attributes.get(i).size();
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package radio.n2ehl;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless entry point, for generating reports without the JavaFX window.
+ * This class deliberately doesn't extend Application, so it can run on machines without a display.
+ */
+public class ReportCli {
+    static final String OPT_BATCH = "batch";
+    static final String OPT_WATCH = "watch";
+    static final String OPT_SERVE = "serve";
+    static final String OPT_BIND = "bind";
+    static final String OPT_WORKERS = "workers";
+    static final String OPT_OUTPUT_DIR = "output-dir";
+    static final String OPT_LEDGER = "ledger";
+    static final String OPT_REPLACE_LEDGER = "replace-ledger";
+    static final String OPT_MERGE = "merge";
+    static final String OPT_MONTH = "month";
+    static final String OPT_PERIOD = "period";
+    static final String OPT_STARTING_BALANCE = "starting-balance";
+    static final String OPT_ENDING_BALANCE = "ending-balance";
+    static final String OPT_OUTPUT = "output";
+    static final String OPT_HELP = "help";
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    static int run(final String[] args) {
+        final Options options = buildOptions();
+
+        final CommandLine commandLine;
+        try {
+            commandLine = new DefaultParser().parse(options, args);
+        } catch (ParseException ex) {
+            System.err.println(ex.getMessage());
+            printHelp(options);
+            return 2;
+        }
+
+        if (commandLine.hasOption(OPT_HELP)) {
+            printHelp(options);
+            return 0;
+        }
+
+        try {
+            final int workers = commandLine.hasOption(OPT_WORKERS)
+                    ? Integer.parseInt(commandLine.getOptionValue(OPT_WORKERS))
+                    : Runtime.getRuntime().availableProcessors();
+            final Path outputDir = commandLine.hasOption(OPT_OUTPUT_DIR) ? Path.of(commandLine.getOptionValue(OPT_OUTPUT_DIR)) : null;
+
+            final TransactionLedger ledger = commandLine.hasOption(OPT_REPLACE_LEDGER) ? TransactionLedger.fromConfig(ReportConfig.load()).replacingMonths()
+                    : commandLine.hasOption(OPT_LEDGER) ? TransactionLedger.fromConfig(ReportConfig.load()) : null;
+
+            if (commandLine.hasOption(OPT_BATCH)) {
+                final List<Path> skipped = new ArrayList<>();
+                final List<ReportJob> jobs = BatchReportRunner.readJobs(Path.of(commandLine.getOptionValue(OPT_BATCH)), outputDir, skipped);
+                System.out.println("Generating " + jobs.size() + " reports on " + workers + " workers");
+                final int failures = new BatchReportRunner(workers, ledger).run(jobs);
+                if (!skipped.isEmpty()) {
+                    System.err.println("Skipped " + skipped.size() + " exports without complete balances: " + skipped);
+                }
+                return failures == 0 && skipped.isEmpty() ? 0 : 1;
+            }
+
+            if (commandLine.hasOption(OPT_SERVE)) {
+                final ReportServer server = new ReportServer(new InetSocketAddress(commandLine.getOptionValue(OPT_BIND, "127.0.0.1"),
+                        Integer.parseInt(commandLine.getOptionValue(OPT_SERVE))), workers);
+                server.start();
+                server.awaitTermination();
+                return 0;
+            }
+
+            if (commandLine.hasOption(OPT_WATCH)) {
+                new ExportWatcher(Path.of(commandLine.getOptionValue(OPT_WATCH)), outputDir, workers, ledger).run();
+                return 0;
+            }
+
+            if (commandLine.hasOption(OPT_MERGE)) {
+                final Path pdfPath = Path.of(requiredOption(commandLine, OPT_OUTPUT));
+                final List<Path> csvPaths = new ArrayList<>();
+                for (String csv : commandLine.getOptionValues(OPT_MERGE)) {
+                    csvPaths.add(Path.of(csv));
+                }
+                ReportPipeline.renderPdf(csvPaths,
+                        ReportJob.parseBalance(commandLine.getOptionValue(OPT_STARTING_BALANCE), ReportJob.STARTING_BALANCE),
+                        ReportJob.parseBalance(commandLine.getOptionValue(OPT_ENDING_BALANCE), ReportJob.ENDING_BALANCE),
+                        pdfPath, ledger);
+                System.out.println("Generated " + pdfPath);
+                return 0;
+            }
+
+            if (commandLine.hasOption(OPT_MONTH)) {
+                final Path pdfPath = Path.of(requiredOption(commandLine, OPT_OUTPUT));
+                final ReportConfig config = ReportConfig.load();
+                final ReportPeriod period = ReportPeriod.of(commandLine.getOptionValue(OPT_PERIOD, ReportPeriod.MONTH),
+                        YearMonth.parse(commandLine.getOptionValue(OPT_MONTH)), config);
+                ReportPipeline.renderPdf(TransactionLedger.fromConfig(config), period,
+                        ReportJob.parseBalance(commandLine.getOptionValue(OPT_STARTING_BALANCE), ReportJob.STARTING_BALANCE),
+                        ReportJob.parseBalance(commandLine.getOptionValue(OPT_ENDING_BALANCE), ReportJob.ENDING_BALANCE),
+                        pdfPath);
+                System.out.println("Generated " + pdfPath);
+                return 0;
+            }
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+            return 1;
+        }
+
+        printHelp(options);
+        return 2;
+    }
+
+    static Options buildOptions() {
+        final Options options = new Options();
+        options.addOption(Option.builder("b").longOpt(OPT_BATCH).hasArg().argName("manifest|dir")
+                .desc("generate every report listed in a manifest CSV (csv, starting balance, ending balance, output pdf), "
+                        + "or every CSV in a directory that has a .balances file next to it")
+                .build());
+        options.addOption(Option.builder().longOpt(OPT_WATCH).hasArg().argName("dir")
+                .desc("keep running, and generate a report for every CSV dropped into the directory once it has a .balances file next to it")
+                .build());
+        options.addOption(Option.builder().longOpt(OPT_SERVE).hasArg().argName("port")
+                .desc("keep running as an HTTP service: POST a CSV export to /report?starting_balance=...&ending_balance=... to get the PDF back")
+                .build());
+        options.addOption(Option.builder().longOpt(OPT_BIND).hasArg().argName("address")
+                .desc("address for --serve to listen on (default: 127.0.0.1)")
+                .build());
+        options.addOption(Option.builder("w").longOpt(OPT_WORKERS).hasArg().argName("n")
+                .desc("number of reports to render in parallel, for --batch, --watch and --serve (default: number of cores)")
+                .build());
+        options.addOption(Option.builder("o").longOpt(OPT_OUTPUT_DIR).hasArg().argName("dir")
+                .desc("where to write PDFs for a directory of CSVs or a watched directory (default: next to each CSV)")
+                .build());
+        options.addOption(Option.builder("l").longOpt(OPT_LEDGER)
+                .desc("also record the transactions of a batch, watched directory or merge in the ledger (the ledger_dir setting, default ~/.treasurer-report-ledger)")
+                .build());
+        options.addOption(Option.builder().longOpt(OPT_MERGE).hasArgs().argName("csv...")
+                .desc("generate one report from several CSV exports, such as one per account, merged by date; "
+                        + "needs --starting-balance, --ending-balance and --output")
+                .build());
+        options.addOption(Option.builder().longOpt(OPT_REPLACE_LEDGER)
+                .desc("like --ledger, but months already in the ledger are recorded again from these exports, replacing them, "
+                        + "for a month recorded from a partial or wrong export")
+                .build());
+        options.addOption(Option.builder("m").longOpt(OPT_MONTH).hasArg().argName("yyyy-mm")
+                .desc("generate the report for a month recorded in the ledger, needs --starting-balance, --ending-balance and --output")
+                .build());
+        options.addOption(Option.builder("p").longOpt(OPT_PERIOD).hasArg().argName("period")
+                .desc("with --month, report on the month (the default), the quarter, the calendar year (ytd) or the fiscal year "
+                        + "(fiscal-year, starting in the fiscal_year_start month) up to and including that month")
+                .build());
+        options.addOption(Option.builder().longOpt(OPT_STARTING_BALANCE).hasArg().argName("amount")
+                .desc("starting balance for --month or --merge")
+                .build());
+        options.addOption(Option.builder().longOpt(OPT_ENDING_BALANCE).hasArg().argName("amount")
+                .desc("ending balance for --month or --merge")
+                .build());
+        options.addOption(Option.builder().longOpt(OPT_OUTPUT).hasArg().argName("pdf")
+                .desc("PDF to write for --month or --merge")
+                .build());
+        options.addOption(Option.builder("h").longOpt(OPT_HELP).desc("show this help").build());
+        return options;
+    }
+
+    static String requiredOption(final CommandLine commandLine, final String option) {
+        if (!commandLine.hasOption(option)) {
+            throw new IllegalArgumentException("missing --" + option);
+        }
+        return commandLine.getOptionValue(option);
+    }
+
+    static void printHelp(final Options options) {
+        new HelpFormatter().printHelp("treasurers-report-cli", options, true);
+    }
+}
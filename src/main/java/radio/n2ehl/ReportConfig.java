@@ -0,0 +1,73 @@
+package radio.n2ehl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings read from the user's ~/.treasurer-report file, one "key=value" per line.
+ * Lines starting with '#' are comments.
+ * A ReportConfig is read once and never changes, so it can be shared between report runs.
+ */
+public class ReportConfig {
+    static final String CONFIG_FILENAME = ".treasurer-report";
+
+    private final Map<String, String> settings;
+
+    ReportConfig(final Map<String, String> settings) {
+        this.settings = Collections.unmodifiableMap(settings);
+    }
+
+    public static ReportConfig load() {
+        final String userHome = System.getProperty("user.home");
+        if(userHome == null) {
+            return new ReportConfig(new HashMap<>());
+        }
+
+        try {
+            return load(Path.of(userHome, CONFIG_FILENAME));
+        } catch (IOException e) {
+            // ignore, no settings
+            return new ReportConfig(new HashMap<>());
+        }
+    }
+
+    /**
+     * Reads a file in the same "key=value" format, such as a balances sidecar file.
+     */
+    public static ReportConfig load(final Path path) throws IOException {
+        final Map<String, String> settings = new HashMap<>();
+
+        final List<String> configLines = Files.readAllLines(path);
+        for(String line : configLines) {
+            if(line.trim().startsWith("#")) {
+                continue;
+            }
+            final String[] pieces = line.trim().split("=");
+            if(pieces.length == 2) {
+                settings.put(pieces[0].trim(), pieces[1]);
+            }
+        }
+
+        return new ReportConfig(settings);
+    }
+
+    public String get(final String key) {
+        return settings.get(key);
+    }
+
+    /**
+     * Every setting, unmodifiable.
+     */
+    public Map<String, String> getSettings() {
+        return settings;
+    }
+
+    public String getSubmittedLine() {
+        return settings.get("submitted_line");
+    }
+}
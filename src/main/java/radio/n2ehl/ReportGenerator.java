@@ -5,186 +5,410 @@ import lombok.Builder;
 import lombok.Data;
 import org.apache.commons.text.WordUtils;
 
-import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.math.BigDecimal;
-import java.nio.file.Files;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
-import java.nio.file.attribute.FileAttribute;
-import java.nio.file.attribute.PosixFilePermission;
-import java.nio.file.attribute.PosixFilePermissions;
 import java.text.NumberFormat;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToLongFunction;
 
 public class ReportGenerator {
-    static final int COL_DATE = 3;
-    static final int COL_PAYEE = 5;
-    static final int COL_CATEGORY = 6;
-    static final int COL_AMOUNT = 9;
-    static final int COL_ACCOUNT = 10;
-    static final int COL_NOTES = 11;
+    static final String STAGE_PARSING = "Parsing Quicken CSV";
+    static final String STAGE_WRITING = "Writing report";
 
+    // how often, in rows, progress is reported and cancellation is checked
+    static final int PROGRESS_INTERVAL = 1000;
 
-    static String inputFilename = null;
-    static BigDecimal startingBalance = null;
-    static BigDecimal endingBalance = null;
-    static BigDecimal totalInflows = null;
-    static BigDecimal totalOutflows = null;
-    static BigDecimal netTotal = null;
+    // transactions are categorized in batches of up to this many, large enough to be worth doing in parallel
+    static final int BATCH_SIZE = 65_536;
 
-    static List<Transaction> transactions = new ArrayList<>();
-    static Map<String, Category> creditCategories = new HashMap<>();
-    static Map<String, Category> debitCategories = new HashMap<>();
+    private final BigDecimal startingBalance;
+    private final BigDecimal endingBalance;
+    private final String submittedLine;
+    private final boolean mappedIngest;
+    private final int duplicateWindowDays;
 
-    static String submittedLine = null;
+    // totals are in cents
+    long totalInflows = 0;
+    long totalOutflows = 0;
+    long netTotal = 0;
 
-    public static Path generateMarkdown(String inputFilenameParm, BigDecimal startingBalanceParm, BigDecimal endingBalanceParm)  {
-        inputFilename = inputFilenameParm;
-        startingBalance = startingBalanceParm;
-        endingBalance = endingBalanceParm;
+    final ReportAggregate aggregate;
 
-        readConfig();
+    private ProgressListener progressListener = (stage, rowsProcessed) -> {};
 
-        AtomicInteger processingRow = new AtomicInteger(-1);
+    // when set, parsed transactions are recorded here as well as reported on
+    private TransactionLedger ledger = null;
 
-        try {
-              System.out.println("Parsing Quicken CSV");
+    // the period reported on, when it isn't just the month of the first transaction
+    private ReportPeriod reportPeriod = null;
 
-            CSVReader csvReader = new CSVReader(new FileReader(inputFilename));
-            List<String[]> data = csvReader.readAll();
+    private final ReportMetrics metrics = new ReportMetrics();
 
+    // when several exports are merged, their file names and the transactions found in more than one of them
+    private List<String> exportNames = null;
+    private DuplicateDetector duplicateDetector = null;
 
-            data.forEach(row -> {
+    /**
+     * Creates a generator for a single report run.
+     * All the state of the run lives in the instance, so separate generators can run concurrently.
+     */
+    public ReportGenerator(final BigDecimal startingBalance, final BigDecimal endingBalance, final ReportConfig config) {
+        this(startingBalance, endingBalance, config, false);
+    }
 
-                processingRow.incrementAndGet();
+    /**
+     * @param retainTransactions whether to keep every transaction in its subcategory, for looking through them afterwards
+     */
+    ReportGenerator(final BigDecimal startingBalance, final BigDecimal endingBalance, final ReportConfig config, final boolean retainTransactions) {
+        this.startingBalance = startingBalance;
+        this.endingBalance = endingBalance;
+        this.submittedLine = config.getSubmittedLine();
+        this.mappedIngest = MappedCsvTokenizer.MAPPED_ENGINE.equalsIgnoreCase(String.valueOf(config.get(MappedCsvTokenizer.ENGINE_SETTING)).trim());
+        this.duplicateWindowDays = DuplicateDetector.windowDays(config);
+        this.aggregate = new ReportAggregate(retainTransactions);
+    }
 
-                //noinspection ConstantConditions
-                do {
-                    if(row.length > COL_CATEGORY &&  row[COL_CATEGORY].contains("Transfer:")) {
-                        break; // ignore transfers
-                    }
+    public void setProgressListener(final ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
 
-                    if (row[0].contains("Total Inflows:")) {
-                        // totalInflows = new BigDecimal(row[COL_AMOUNT].trim());
-                        break;
-                    }
+    public void setLedger(final TransactionLedger ledger) {
+        this.ledger = ledger;
+    }
 
-                    if (row[0].contains("Total Outflows:")) {
-                        // totalOutflows = new BigDecimal(row[COL_AMOUNT].trim());
-                        break;
-                    }
+    /**
+     * The stage timings of this run, which the caller can carry on into PDF rendering.
+     */
+    public ReportMetrics getMetrics() {
+        return metrics;
+    }
 
-                    if (row[0].contains("Net Total:")) {
-                        //  netTotal = new BigDecimal(row[1].trim());
-                        break;
-                    }
+    public static String generateMarkdown(String inputFilename, BigDecimal startingBalance, BigDecimal endingBalance)  {
+        return new ReportGenerator(startingBalance, endingBalance, ReportConfig.load()).generate(inputFilename);
+    }
+
+    public String generate(final String inputFilename) {
+        return generate(Path.of(inputFilename));
+    }
 
-                    if (row.length > COL_DATE && isDate(row[COL_DATE])) {
-                        String[] categoryParts = row[COL_CATEGORY].split(":");
-
-                        Transaction transaction = Transaction.builder()
-                                .transactionDate(parseDate(row[COL_DATE].trim()))
-                                .payee(row[COL_PAYEE].trim())
-                                .category(categoryParts[0])
-                                .subCategory(categoryParts.length > 1 ? categoryParts[1] : "Other")
-                                .amount(new BigDecimal(row[COL_AMOUNT]))
-                                .account(row[COL_ACCOUNT])
-                                .notes(row[COL_NOTES].trim())
-                                .build();
-
-                        transactions.add(transaction);
-                        break;
+    /**
+     * Generates the report markdown from a Quicken CSV export file, returning null if the export can't be processed.
+     * With "csv_engine=mapped" in the settings, the file is memory-mapped and only the columns the report uses are decoded,
+     * and a large export is read in chunks on all cores (see ParallelCsvIngest) unless its transactions go to a ledger.
+     */
+    public String generate(final Path csvPath) {
+        startParsing();
+        if (mappedIngest && ledger == null) {
+            try {
+                if (ParallelCsvIngest.isWorthwhile(csvPath, Charset.defaultCharset(), ForkJoinPool.commonPool())) {
+                    final String markdown = generateInParallel(csvPath);
+                    if (markdown != null) {
+                        return markdown;
                     }
-                } while (false);
-            });
+                }
+            } catch(CancellationException ex) {
+                throw ex;
+            } catch(Exception ex) {
+                System.err.println("Error while processing " + csvPath);
+                ex.printStackTrace();
+                return null;
+            }
+        }
+
+        final QuickenRowClassifier classifier = new QuickenRowClassifier();
+        final CsvRowSource rows;
+        try {
+            rows = open(csvPath, classifier);
+        } catch(IOException ex) {
+            System.err.println("Error while opening " + csvPath);
+            ex.printStackTrace();
+            return null;
+        }
+        return generate(rows, classifier);
+    }
+
+    /**
+     * Generates one report from several Quicken CSV exports, such as one per account, returning null if any of them
+     * can't be processed. The exports are read side by side and merged by date (see TransactionMerge) into a single
+     * pass over the transactions, so memory use grows with the number of exports rather than their size.
+     * Transactions that more than one export reports are only counted once, and listed in an appendix
+     * (see DuplicateDetector). A single export is generated as by generate(Path).
+     */
+    public String generate(final List<Path> csvPaths) {
+        if (csvPaths.size() == 1) {
+            return generate(csvPaths.get(0));
+        }
+        startParsing();
+
+        final List<CsvRowSource> exports = new ArrayList<>();
+        final List<QuickenRowClassifier> classifiers = new ArrayList<>();
+        for (Path csvPath : csvPaths) {
+            final QuickenRowClassifier classifier = new QuickenRowClassifier();
+            try {
+                exports.add(open(csvPath, classifier));
+            } catch(IOException ex) {
+                System.err.println("Error while opening " + csvPath);
+                ex.printStackTrace();
+                closeQuietly(exports);
+                return null;
+            }
+            classifiers.add(classifier);
+        }
+
+        exportNames = new ArrayList<>();
+        for (Path csvPath : csvPaths) {
+            exportNames.add(String.valueOf(csvPath.getFileName()));
+        }
+        duplicateDetector = new DuplicateDetector(csvPaths.size(), duplicateWindowDays, aggregate.dictionary);
+
+        long rowsRead = 0;
+        try (TransactionMerge merge = new TransactionMerge(exports, classifiers);
+             TransactionLedger.Appender ledgerAppender = ledger != null ? ledger.newAppender() : null) {
+            // each transaction is categorized as the merge returns it, so memory grows with the number of exports
+            // and categories rather than their rows; reading and classifying are interleaved across the exports,
+            // so both are timed as reading
+            final ReportMetrics.Interleaved rowStages = metrics.interleave();
+            long nextProgressRow = 0;
+            Transaction transaction;
+            while ((transaction = merge.next()) != null) {
+                rowStages.lap(ReportMetrics.Stage.CSV_READ, merge.getRowsRead() - rowsRead);
+                rowsRead = merge.getRowsRead();
+                if (rowsRead >= nextProgressRow) {
+                    checkCancelled();
+                    progressListener.progress(STAGE_PARSING, rowsRead);
+                    nextProgressRow = rowsRead + PROGRESS_INTERVAL;
+                }
+
+                if (duplicateDetector.isDuplicate(transaction, merge.getLastExport())) {
+                    continue;
+                }
+                if (ledgerAppender != null) {
+                    ledgerAppender.append(transaction);
+                    rowStages.lap(ReportMetrics.Stage.LEDGER, 1);
+                }
+                aggregate.categorizeTransaction(transaction);
+                rowStages.lap(ReportMetrics.Stage.CATEGORIZATION, 1);
+            }
+            rowStages.lap(ReportMetrics.Stage.CSV_READ, merge.getRowsRead() - rowsRead);
+            rowsRead = merge.getRowsRead();
+            rowStages.end();
+            if (ledgerAppender != null) {
+                ledgerAppender.commit();
+            }
+            if (duplicateDetector.getDuplicateCount() > 0) {
+                System.out.println("Skipped " + duplicateDetector.getDuplicateCount() + " transactions found in more than one export");
+            }
+            if (duplicateDetector.getUncheckedCount() > 0) {
+                System.err.println(duplicateDetector.getUncheckedCount() + " transactions were too far out of date order to check for duplicates; "
+                        + "export in date order, or raise " + DuplicateDetector.WINDOW_SETTING);
+            }
 
-            createCategories();
             calculateTotals();
+
+            checkCancelled();
+            progressListener.progress(STAGE_WRITING, rowsRead);
             return writeMarkdown();
 
-           } catch(Exception ex) {
-            System.err.println("Error while processing row " + processingRow.get());
+        } catch(CancellationException ex) {
+            throw ex;
+        } catch(Exception ex) {
+            System.err.println("Error while merging " + csvPaths + " after row " + rowsRead);
             ex.printStackTrace();
             return null;
         }
     }
 
-    static void readConfig() {
-        final String userHome = System.getProperty("user.home");
-        if(userHome != null) {
+    /**
+     * Opens an export's rows, memory-mapped with "csv_engine=mapped" in the settings.
+     */
+    private CsvRowSource open(final Path csvPath, final QuickenRowClassifier classifier) throws IOException {
+        final MappedCsvTokenizer tokenizer = mappedIngest ? MappedCsvTokenizer.open(csvPath, Charset.defaultCharset(), classifier::neededColumns) : null;
+        return tokenizer != null ? tokenizer : CsvRowSource.of(new CSVReader(new FileReader(csvPath.toFile())));
+    }
+
+    private static void closeQuietly(final List<CsvRowSource> exports) {
+        for (CsvRowSource export : exports) {
             try {
-                final List<String> configLines = Files.readAllLines(Path.of(userHome, ".treasurer-report"));
-                for(String line : configLines) {
-                    if(line.trim().startsWith("#")) {
-                        continue;
+                export.close();
+            } catch (IOException ex) {
+                // already failing
+            }
+        }
+    }
+
+    /**
+     * Reads the export in parallel chunks, returning null if it can't be split and has to be read sequentially.
+     */
+    private String generateInParallel(final Path csvPath) throws IOException {
+        final ParallelCsvIngest ingest = new ParallelCsvIngest(csvPath, Charset.defaultCharset(), ForkJoinPool.commonPool());
+        final long rowsRead = ingest.ingest(aggregate, metrics, rows -> progressListener.progress(STAGE_PARSING, rows));
+        if (rowsRead < 0) {
+            return null;
+        }
+
+        calculateTotals();
+
+        checkCancelled();
+        progressListener.progress(STAGE_WRITING, rowsRead);
+        return writeMarkdown();
+    }
+
+    /**
+     * Generates the report markdown from a Quicken CSV export, returning null if the export can't be processed.
+     * The reader is closed when done.
+     *
+     * If the running thread is interrupted, generation stops with a CancellationException.
+     */
+    public String generate(final Reader csvInput) {
+        startParsing();
+        return generate(CsvRowSource.of(new CSVReader(csvInput)), new QuickenRowClassifier());
+    }
+
+    private void startParsing() {
+        System.out.println(STAGE_PARSING);
+        progressListener.progress(STAGE_PARSING, 0);
+    }
+
+    private String generate(final CsvRowSource csvRows, final QuickenRowClassifier classifier) {
+        int processingRow = -1;
+
+        try (csvRows;
+             TransactionLedger.Appender ledgerAppender = ledger != null ? ledger.newAppender() : null) {
+            // rows are classified as they're read and categorized a batch at a time, so memory use is bounded by
+            // the batch size and the number of categories rather than the size of the export
+            final List<Transaction> batch = new ArrayList<>(BATCH_SIZE);
+            final ReportMetrics.Interleaved rowStages = metrics.interleave();
+            String[] row;
+            while ((row = csvRows.readNext()) != null) {
+                rowStages.lap(ReportMetrics.Stage.CSV_READ, 1);
+                processingRow++;
+                if (processingRow % PROGRESS_INTERVAL == 0) {
+                    checkCancelled();
+                    progressListener.progress(STAGE_PARSING, processingRow);
+                }
+
+                final Transaction transaction = classifier.parseRow(row);
+                rowStages.lap(ReportMetrics.Stage.CLASSIFICATION, 1);
+                if (transaction != null) {
+                    if (ledgerAppender != null) {
+                        ledgerAppender.append(transaction);
+                        rowStages.lap(ReportMetrics.Stage.LEDGER, 1);
                     }
-                    if(line.trim().startsWith("submitted_line")) {
-                        final String[] pieces = line.trim().split("=");
-                        if(pieces.length == 2) {
-                            submittedLine = pieces[1];
-                        }
+                    batch.add(transaction);
+                    if (batch.size() == BATCH_SIZE) {
+                        aggregate.categorizeAll(batch);
+                        rowStages.lap(ReportMetrics.Stage.CATEGORIZATION, batch.size());
+                        batch.clear();
                     }
                 }
-            } catch (IOException e) {
-                // ignore
             }
-        }
+            rowStages.lap(ReportMetrics.Stage.CSV_READ, 0);
+            aggregate.categorizeAll(batch);
+            rowStages.lap(ReportMetrics.Stage.CATEGORIZATION, batch.size());
+            rowStages.end();
+            if (ledgerAppender != null) {
+                ledgerAppender.commit();
+            }
 
-    }
+            calculateTotals();
 
-    static boolean isDate(final String str) {
-        if(str.length() < 8 || str.length() > 10) {
-            return false;
-        }
+            checkCancelled();
+            progressListener.progress(STAGE_WRITING, processingRow + 1);
+            return writeMarkdown();
 
-        final String[] dateParts = str.split("/");
-        if(dateParts.length != 3) {
-            return false;
+        } catch(CancellationException ex) {
+            throw ex;
+        } catch(Exception ex) {
+            System.err.println("Error while processing row " + processingRow);
+            ex.printStackTrace();
+            return null;
         }
+    }
 
-        if(dateParts[0].length() < 1 || dateParts[0].length() > 2) {
-            return false;
-        }
+    /**
+     * Generates the report markdown for a month that was recorded in the ledger by an earlier run,
+     * without needing its CSV export.
+     */
+    public String generate(final TransactionLedger ledger, final YearMonth month) throws IOException {
+        return generate(ledger, ReportPeriod.month(month));
+    }
 
-        if(dateParts[1].length() < 1 || dateParts[1].length() > 2) {
-            return false;
+    /**
+     * Generates the report markdown for a period of months recorded in the ledger, such as a year to date.
+     * Each month's category totals were rolled up when it was recorded, so this only merges one small rollup per month.
+     */
+    public String generate(final TransactionLedger ledger, final ReportPeriod period) throws IOException {
+        System.out.println("Merging monthly rollups for " + period.getLabel());
+        final ReportMetrics.Span span = metrics.begin(ReportMetrics.Stage.CATEGORIZATION);
+        final List<YearMonth> missingMonths = new ArrayList<>();
+        for (YearMonth month : period.months()) {
+            final ReportAggregate rollup = ledger.readRollup(month);
+            if (rollup == null) {
+                missingMonths.add(month);
+            } else {
+                aggregate.merge(rollup);
+            }
+        }
+        span.end(0);
+        if (!missingMonths.isEmpty()) {
+            throw new IOException("no transactions are recorded for " + missingMonths + " in " + ledger.getDirectory());
         }
 
-        return dateParts[2].length() == 4;
+        reportPeriod = period;
+        calculateTotals();
+        return writeMarkdown();
     }
 
-    static void createCategories() {
-        System.out.println("Categorizing Transactions");
-        transactions.stream().filter(transaction -> transaction.amount.compareTo(BigDecimal.ZERO) >= 0).forEach(deposit -> categorizeTransaction(creditCategories, deposit));
-        transactions.stream().filter(transaction -> transaction.amount.compareTo(BigDecimal.ZERO) < 0).forEach(payment -> categorizeTransaction(debitCategories, payment));
+    /**
+     * The totals of the report just generated, for showing them without rendering the report.
+     */
+    Summary getSummary() {
+        return Summary.builder()
+                .reportPeriod(getReportPeriodString())
+                .totalIncome(totalInflows)
+                .totalExpenses(totalOutflows)
+                .netChange(netTotal)
+                .aggregate(aggregate)
+                .build();
     }
 
-    static void categorizeTransaction(final Map<String, Category> categoryMap, final Transaction transaction) {
-        if (!categoryMap.containsKey(transaction.category)) {
-            Category category = new Category(transaction.category, BigDecimal.ZERO, new HashMap<>());
-            categoryMap.put(transaction.category, category);
+    static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("report generation was cancelled");
         }
-        final Category category = categoryMap.get(transaction.category);
-        Subcategory subcategory = category.subcategories.get(transaction.subCategory);
-        if (subcategory == null) {
-            subcategory = new Subcategory(transaction.subCategory, BigDecimal.ZERO, new ArrayList<>());
-            category.subcategories.put(subcategory.name, subcategory);
+    }
+
+    void calculateTotals() {
+        totalInflows = sumCategories(aggregate.creditCategories);
+        totalOutflows = sumCategories(aggregate.debitCategories);
+        netTotal = Cents.add(totalInflows, totalOutflows);
+    }
+
+    static long sumCategories(final Map<String, Category> categoryMap) {
+        long total = 0;
+        for (Category category : categoryMap.values()) {
+            total = Cents.add(total, category.total);
         }
-        subcategory.transactions.add(transaction);
-        subcategory.total = subcategory.total.add(transaction.amount);
-        category.total = category.total.add(transaction.amount);
+        return total;
     }
 
-    static void calculateTotals() {
-        totalInflows = creditCategories.values().stream().map(Category::getTotal).reduce(BigDecimal::add).orElse(BigDecimal.ZERO);
-        totalOutflows = debitCategories.values().stream().map(Category::getTotal).reduce(BigDecimal::add).orElse(BigDecimal.ZERO);
-        netTotal = totalInflows.add(totalOutflows);
+    String writeMarkdown() {
+        final ReportMetrics.Span span = metrics.begin(ReportMetrics.Stage.MARKDOWN);
+        final String markdown = buildMarkdown();
+        // the later stages count the transactions they report on, for comparable rows/s
+        span.end(metrics.getRows(ReportMetrics.Stage.CATEGORIZATION));
+        return markdown;
     }
 
-    static Path writeMarkdown() throws Exception {
+    String buildMarkdown() {
         final String reportPeriodString = getReportPeriodString();
 
         StringBuilder buf = new StringBuilder();
@@ -203,9 +427,9 @@ public class ReportGenerator {
         .append(" was ")
         .append(NumberFormat.getCurrencyInstance().format(endingBalance)) //endingBalance.setScale(2).toPlainString())
         .append(", a net ")
-        .append(netTotal.compareTo(BigDecimal.ZERO) >= 0 ? "increase" : "decrease")
+        .append(netTotal >= 0 ? "increase" : "decrease")
         .append(" of ")
-        .append(NumberFormat.getCurrencyInstance().format(netTotal.abs()))
+        .append(Cents.toCurrencyString(Math.abs(netTotal)))
         .append("</p>\n\n")
         .append("<p><br/></p>\n\n")
         .append("| **Cash Flow for ").append(reportPeriodString).append("** || \n")
@@ -213,10 +437,10 @@ public class ReportGenerator {
         .append("| Starting Balance | ").append(NumberFormat.getCurrencyInstance().format(startingBalance)).append("|\n")
         .append("| Ending Balance | ").append(NumberFormat.getCurrencyInstance().format(endingBalance)).append("|\n")
         .append("| <br/> | <br/> |\n")
-        .append("| Total Income | ").append(totalInflows).append("|\n")
-        .append("| Total Expenses | ").append(totalOutflows).append("|\n")
+        .append("| Total Income | ").append(Cents.toPlainString(totalInflows)).append("|\n")
+        .append("| Total Expenses | ").append(Cents.toPlainString(totalOutflows)).append("|\n")
         .append("| <br/> | <br/> |\n")
-        .append("| Net Change | ").append(netTotal).append("|\n")
+        .append("| Net Change | ").append(Cents.toPlainString(netTotal)).append("|\n")
         .append("\n\n<p></p>\n\n");
 
         appendCreditCategoriesMarkdown(buf);
@@ -224,71 +448,119 @@ public class ReportGenerator {
         buf.append("\n\n<p></p>\n\n");
         appendExpenseCategoriesMarkdown(buf);
         buf.append("\n\n<p></p>\n\n");
+        appendTopPayeesMarkdown(buf, "Top Payees By Income", aggregate.topPayees(Payee::getInflow), Payee::getInflow);
+        buf.append("\n\n<p></p>\n\n");
+        appendTopPayeesMarkdown(buf, "Top Payees By Expenses", aggregate.topPayees(Payee::getOutflow), Payee::getOutflow);
+        buf.append("\n\n<p></p>\n\n");
+        appendLargestTransactionsMarkdown(buf);
+        buf.append("\n\n<p></p>\n\n");
         // buf.append("\n\n<p><i>Respectfully Submitted by Rich Freedman N2EHL, Treasurer</i></p>\n\n");
         if(submittedLine != null) {
             buf.append("\n\n<p><i>" + submittedLine + "</i></p>\n\n");
         }
+        if (duplicateDetector != null && duplicateDetector.getDuplicateCount() > 0) {
+            buf.append("\n\n<p></p>\n\n");
+            appendDuplicatesMarkdown(buf);
+        }
 
-        FileAttribute<Set<PosixFilePermission>> rwx = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwxrwxrwx"));
-        Path tempFilePath = Files.createTempFile("temp-treasurer-report", ".md", rwx);
-        Files.writeString(tempFilePath, buf.toString());
-        return tempFilePath;
+        return buf.toString();
     }
 
-    static void appendCreditCategoriesMarkdown(final StringBuilder buf) {
+    void appendCreditCategoriesMarkdown(final StringBuilder buf) {
         buf.append("<br/><br/>**Income By Category**\n\n")
                 .append("| **Category** | **Subcategory** | **Amount** | **Category Total** |\n")
                 .append("| :--- | :--- | ---: | ---: |\n");
 
-        creditCategories.forEach((categoryName, category) -> {
-            buf.append("| ").append(categoryName).append(" |  |  |  ").append(category.total).append(" |\n");
+        aggregate.creditCategories.forEach((categoryName, category) -> {
+            buf.append("| ").append(categoryName).append(" |  |  |  ").append(Cents.toPlainString(category.total)).append(" |\n");
 
             category.subcategories.forEach(((subcategoryName, subcategory) ->
-                    buf.append("|  | ").append(subcategoryName).append("  | ").append(subcategory.total).append(" |  |\n")
+                    buf.append("|  | ").append(subcategoryName).append("  | ").append(Cents.toPlainString(subcategory.total)).append(" |  |\n")
             ));
         });
 
-        BigDecimal totalCredits = creditCategories.values()
-                .stream()
-                .map(Category::getTotal)
-                .reduce(BigDecimal::add).orElse(BigDecimal.ZERO);
+        final long totalCredits = sumCategories(aggregate.creditCategories);
 
         buf.append("|||||\n");
-        buf.append("|").append("**TOTAL**").append("||| **").append(totalCredits).append("** |\n");
+        buf.append("|").append("**TOTAL**").append("||| **").append(Cents.toPlainString(totalCredits)).append("** |\n");
     }
 
-    static void appendExpenseCategoriesMarkdown(final StringBuilder buf) {
+    void appendExpenseCategoriesMarkdown(final StringBuilder buf) {
         buf.append("<br/><br/>**Expenses By Category**\n\n")
                 .append("| **Category** | **Subcategory** | **Amount** | **Category Total** |\n")
                 .append("| :--- | :--- | ---: | ---: |\n");
 
-        debitCategories.forEach((categoryName, category) -> {
-            buf.append("| ").append(categoryName).append(" |  |  | ").append(category.total).append(" |\n");
+        aggregate.debitCategories.forEach((categoryName, category) -> {
+            buf.append("| ").append(categoryName).append(" |  |  | ").append(Cents.toPlainString(category.total)).append(" |\n");
 
             category.subcategories.forEach(((subcategoryName, subcategory) ->
-                    buf.append("|  | ").append(subcategoryName).append("  | ").append(subcategory.total).append(" | |\n")
+                    buf.append("|  | ").append(subcategoryName).append("  | ").append(Cents.toPlainString(subcategory.total)).append(" | |\n")
             ));
 
             buf.append("|||||\n|||||\n");
         });
 
-        BigDecimal totalCredits = debitCategories.values()
-                .stream()
-                .map(Category::getTotal)
-                .reduce(BigDecimal::add).orElse(BigDecimal.ZERO);
+        final long totalDebits = sumCategories(aggregate.debitCategories);
 
         buf.append("|||||\n");
         buf.append("|||||\n");
-        buf.append("|").append("**TOTAL**").append(" ||| **").append(totalCredits).append("**|\n");
+        buf.append("|").append("**TOTAL**").append(" ||| **").append(Cents.toPlainString(totalDebits)).append("**|\n");
     }
 
-    static String getReportPeriodString() {
-        if (transactions == null || transactions.isEmpty()) {
+    void appendTopPayeesMarkdown(final StringBuilder buf, final String title, final List<Payee> payees, final ToLongFunction<Payee> flow) {
+        buf.append("<br/><br/>**").append(title).append("**\n\n")
+                .append("| **Payee** | **Amount** |\n")
+                .append("| :--- | ---: |\n");
+
+        for (Payee payee : payees) {
+            buf.append("| ").append(payee.name).append(" | ").append(Cents.toPlainString(flow.applyAsLong(payee))).append(" |\n");
+        }
+    }
+
+    void appendLargestTransactionsMarkdown(final StringBuilder buf) {
+        buf.append("<br/><br/>**Largest Transactions**\n\n")
+                .append("| **Date** | **Payee** | **Category** | **Amount** |\n")
+                .append("| :--- | :--- | :--- | ---: |\n");
+
+        for (Transaction transaction : aggregate.largestTransactions()) {
+            buf.append("| ").append(transaction.transactionDate)
+                    .append(" | ").append(Objects.toString(transaction.payee, ""))
+                    .append(" | ").append(transaction.category).append(":").append(transaction.subCategory)
+                    .append(" | ").append(Cents.toPlainString(transaction.amount)).append(" |\n");
+        }
+    }
+
+    void appendDuplicatesMarkdown(final StringBuilder buf) {
+        buf.append("<br/><br/>**Appendix: Transactions Found in More Than One Export**\n\n")
+                .append("Each was counted from the export it was read from first, and these copies were left out of the totals above.\n\n")
+                .append("| **Date** | **Payee** | **Account** | **Amount** | **Copy In** |\n")
+                .append("| :--- | :--- | :--- | ---: | :--- |\n");
+
+        for (int export = 0; export < exportNames.size(); export++) {
+            final TransactionTable duplicates = duplicateDetector.getDuplicates(export);
+            for (int row = 0; row < duplicates.size(); row++) {
+                buf.append("| ").append(duplicates.getDate(row))
+                        .append(" | ").append(Objects.toString(duplicates.getPayee(row), ""))
+                        .append(" | ").append(Objects.toString(duplicates.getAccount(row), ""))
+                        .append(" | ").append(Cents.toPlainString(duplicates.getAmount(row)))
+                        .append(" | ").append(exportNames.get(export)).append(" |\n");
+            }
+        }
+
+        buf.append("||||||\n");
+        buf.append("|").append("**TRANSACTIONS**").append(" ||| **").append(duplicateDetector.getDuplicateCount()).append("** ||\n");
+    }
+
+    String getReportPeriodString() {
+        if (reportPeriod != null) {
+            return reportPeriod.getLabel();
+        }
+        if (aggregate.firstTransactionDate == null) {
             return "???";
         }
 
         try {
-            LocalDate transactionDate = transactions.get(0).transactionDate;
+            LocalDate transactionDate = aggregate.firstTransactionDate;
             return WordUtils.capitalizeFully(transactionDate.getMonth().name()) + " " + transactionDate.getYear();
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -296,20 +568,19 @@ public class ReportGenerator {
         }
     }
 
-    static LocalDate parseDate(final String str) {
-        final String[] dateParts = str.split("/");
-        return LocalDate.of(
-                Integer.parseInt(dateParts[2]), // incoming format is month/day/year
-                Integer.parseInt(dateParts[0]),
-                Integer.parseInt(dateParts[1])
-        );
+    /**
+     * Notified as a report run makes progress, on the thread running the report.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void progress(String stage, long rowsProcessed);
     }
 
     @Data
     @Builder
     static class Category {
         public String name;
-        public BigDecimal total;
+        public long total; // in cents
         public Map<String, Subcategory> subcategories;
     }
 
@@ -317,8 +588,26 @@ public class ReportGenerator {
     @Builder
     static class Subcategory {
         public String name;
-        public BigDecimal total;
-        public List<Transaction> transactions;
+        public long total; // in cents
+        public TransactionTable transactions; // only filled in when the aggregate retains transactions
+    }
+
+    @Data
+    @Builder
+    static class Payee {
+        public String name;
+        public long inflow; // in cents
+        public long outflow; // in cents, negative
+    }
+
+    @Data
+    @Builder
+    static class Summary {
+        public String reportPeriod;
+        public long totalIncome; // in cents
+        public long totalExpenses; // in cents
+        public long netChange; // in cents
+        public ReportAggregate aggregate; // the categories, with their transactions if the generator retained them
     }
 
     @Data
@@ -328,7 +617,7 @@ public class ReportGenerator {
         public String payee;
         public String category;
         public String subCategory;
-        public BigDecimal amount;
+        public long amount; // in cents
         public String account;
         public String notes;
     }
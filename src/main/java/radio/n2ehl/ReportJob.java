@@ -0,0 +1,59 @@
+package radio.n2ehl;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+
+/**
+ * One report to generate headlessly: a Quicken CSV export, the month's balances, and where to write the PDF.
+ */
+@Data
+@Builder
+public class ReportJob {
+    static final String BALANCES_EXTENSION = ".balances";
+    static final String STARTING_BALANCE = "starting_balance";
+    static final String ENDING_BALANCE = "ending_balance";
+
+    public Path csvPath;
+    public BigDecimal startingBalance;
+    public BigDecimal endingBalance;
+    public Path pdfPath;
+
+    /**
+     * Builds a job for a CSV export that has a sidecar balances file next to it
+     * (e.g. "checking.csv" and "checking.balances"), containing "starting_balance=..." and "ending_balance=..." lines.
+     * The PDF is written to outputDir, or next to the CSV if outputDir is null.
+     */
+    static ReportJob fromSidecar(final Path csvPath, final Path outputDir) throws IOException {
+        final String baseName = baseName(csvPath);
+        final ReportConfig balances = ReportConfig.load(csvPath.resolveSibling(baseName + BALANCES_EXTENSION));
+
+        final Path pdfDir = outputDir != null ? outputDir : csvPath.toAbsolutePath().getParent();
+        return ReportJob.builder()
+                .csvPath(csvPath)
+                .startingBalance(parseBalance(balances.get(STARTING_BALANCE), STARTING_BALANCE))
+                .endingBalance(parseBalance(balances.get(ENDING_BALANCE), ENDING_BALANCE))
+                .pdfPath(pdfDir.resolve(baseName + ".pdf"))
+                .build();
+    }
+
+    static BigDecimal parseBalance(final String value, final String name) {
+        if(value == null || value.isBlank()) {
+            throw new IllegalArgumentException("missing " + name);
+        }
+        try {
+            return new BigDecimal(value.trim().replace("$", "").replace(",", ""));
+        } catch(NumberFormatException ex) {
+            throw new IllegalArgumentException("invalid " + name + ": " + value);
+        }
+    }
+
+    static String baseName(final Path path) {
+        final String fileName = path.getFileName().toString();
+        final int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+}
@@ -0,0 +1,256 @@
+package radio.n2ehl;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Wall time, rows and allocated bytes for each stage of one report run.
+ *
+ * Every measured span of a stage is also committed as a JFR event ("radio.n2ehl.ReportStage"), so month-end runs
+ * can be recorded with -XX:StartFlightRecording, and the run's totals are printed as a single "report-metrics" line
+ * of key=value pairs for tracking regressions from logs.
+ * Stages that take turns on every row, like reading and classifying it, are timed row by row (see Interleaved)
+ * rather than by holding rows back to time each stage over many of them.
+ * Allocation is counted per thread; work done on other threads is measured in its own ReportMetrics and added in.
+ * A ReportMetrics is for use by one thread at a time.
+ */
+public class ReportMetrics {
+
+    public enum Stage {
+        CSV_READ("csv_read"),
+        CLASSIFICATION("classify"),
+        LEDGER("ledger"),
+        CATEGORIZATION("categorize"),
+        MARKDOWN("markdown"),
+        HTML_RENDER("html"),
+        PDF_EXPORT("pdf");
+
+        final String key;
+
+        Stage(final String key) {
+            this.key = key;
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCountingThreads();
+
+    private final long startNanos = System.nanoTime();
+    private final Map<Stage, long[]> totals = new EnumMap<>(Stage.class);
+
+    // indexes into the totals for a stage
+    private static final int NANOS = 0;
+    private static final int ROWS = 1;
+    private static final int ALLOCATED = 2;
+    private static final long[] NOT_RUN = new long[3];
+
+    private static com.sun.management.ThreadMXBean allocationCountingThreads() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * Starts measuring a span of the stage, which is added to the stage's totals when it ends.
+     */
+    public Span begin(final Stage stage) {
+        return new Span(stage);
+    }
+
+    /**
+     * Starts timing stages that take turns row by row, which are added to the stages' totals when it ends.
+     */
+    public Interleaved interleave() {
+        return new Interleaved();
+    }
+
+    public long getNanos(final Stage stage) {
+        return totals.getOrDefault(stage, NOT_RUN)[NANOS];
+    }
+
+    public long getRows(final Stage stage) {
+        return totals.getOrDefault(stage, NOT_RUN)[ROWS];
+    }
+
+    public long getAllocatedBytes(final Stage stage) {
+        return totals.getOrDefault(stage, NOT_RUN)[ALLOCATED];
+    }
+
+    /**
+     * Adds in the totals of work measured separately, such as on another thread.
+     */
+    public void add(final ReportMetrics other) {
+        other.totals.forEach((stage, otherTotals) -> {
+            final long[] stageTotals = totals(stage);
+            for (int i = 0; i < stageTotals.length; i++) {
+                stageTotals[i] += otherTotals[i];
+            }
+        });
+    }
+
+    private long[] totals(final Stage stage) {
+        return totals.computeIfAbsent(stage, s -> new long[3]);
+    }
+
+    private void record(final Stage stage, final StageEvent event, final long nanos, final long rows, final long allocated) {
+        final long[] stageTotals = totals(stage);
+        stageTotals[NANOS] += nanos;
+        stageTotals[ROWS] += rows;
+        stageTotals[ALLOCATED] += allocated;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.stage = stage.key;
+            event.stageTime = nanos;
+            event.rows = rows;
+            event.allocatedBytes = allocated;
+            event.commit();
+        }
+    }
+
+    /**
+     * The run's totals on one line, e.g.
+     * "report-metrics total_ms=812.4 csv_read_ms=301.2 csv_read_rows=300000 csv_read_rows_per_s=996015 csv_read_alloc_bytes=... ...".
+     * Stages that didn't run are left out.
+     */
+    public String summaryLine() {
+        final StringBuilder line = new StringBuilder("report-metrics total_ms=").append(millis(System.nanoTime() - startNanos));
+        totals.forEach((stage, stageTotals) -> {
+            line.append(' ').append(stage.key).append("_ms=").append(millis(stageTotals[NANOS]))
+                    .append(' ').append(stage.key).append("_rows=").append(stageTotals[ROWS])
+                    .append(' ').append(stage.key).append("_rows_per_s=")
+                    .append(stageTotals[NANOS] > 0 ? stageTotals[ROWS] * 1_000_000_000L / stageTotals[NANOS] : 0)
+                    .append(' ').append(stage.key).append("_alloc_bytes=").append(stageTotals[ALLOCATED]);
+        });
+        return line.toString();
+    }
+
+    private static String millis(final long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+    }
+
+    /**
+     * One measured stretch of a stage.
+     */
+    public class Span {
+        private final Stage stage;
+        private final StageEvent event = new StageEvent();
+        private final long startNanos;
+        private final long startAllocated;
+
+        Span(final Stage stage) {
+            this.stage = stage;
+            event.begin();
+            startAllocated = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        public void end(final long rows) {
+            final long nanos = System.nanoTime() - startNanos;
+            record(stage, event, nanos, rows, allocatedBytes() - startAllocated);
+        }
+    }
+
+    /**
+     * Stages timed row by row. Each lap adds the time since the previous lap to its stage, so a row can be read,
+     * classified and categorized before the next is read and each stage still gets its own time.
+     * Reading the allocation counter on every lap would cost more than the laps themselves, so allocation is counted
+     * for the whole stretch and split between the stages by what they allocated on a sample of the laps.
+     */
+    public class Interleaved {
+        // prime, so the sampled laps rotate through however many stages each row takes turns between
+        private static final int SAMPLE_INTERVAL = 61;
+
+        private final StageEvent[] events = new StageEvent[Stage.values().length];
+        private final long[] nanos = new long[events.length];
+        private final long[] rows = new long[events.length];
+        private final long[] sampledAllocated = new long[events.length];
+        private final long startAllocated;
+        private long laps = 0;
+        private boolean sampling = true;
+        private long lapAllocated;
+        private long lapStart;
+
+        Interleaved() {
+            for (int i = 0; i < events.length; i++) {
+                events[i] = new StageEvent();
+                events[i].begin();
+            }
+            startAllocated = allocatedBytes();
+            lapAllocated = startAllocated;
+            lapStart = System.nanoTime();
+        }
+
+        /**
+         * Ends a lap of the stage, which started when the previous lap ended.
+         */
+        public void lap(final Stage stage, final long lapRows) {
+            long now = System.nanoTime();
+            final int i = stage.ordinal();
+            nanos[i] += now - lapStart;
+            rows[i] += lapRows;
+            if (sampling) {
+                sampledAllocated[i] += allocatedBytes() - lapAllocated;
+            }
+            sampling = ++laps % SAMPLE_INTERVAL == 0;
+            if (sampling) {
+                lapAllocated = allocatedBytes();
+                // reading the counter isn't part of the next lap
+                now = System.nanoTime();
+            }
+            lapStart = now;
+        }
+
+        public void end() {
+            final long allocated = allocatedBytes() - startAllocated;
+            long sampled = 0;
+            for (long stageSampled : sampledAllocated) {
+                sampled += stageSampled;
+            }
+            for (Stage stage : Stage.values()) {
+                final int i = stage.ordinal();
+                if (nanos[i] > 0 || rows[i] > 0) {
+                    record(stage, events[i], nanos[i], rows[i], sampled > 0 ? Math.round((double) allocated * sampledAllocated[i] / sampled) : 0);
+                }
+            }
+        }
+    }
+
+    @Name("radio.n2ehl.ReportStage")
+    @Label("Report Stage")
+    @Category("Treasurer's Report")
+    @Description("A stretch of one stage of a report run")
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        // the stage's own time, less than the event's duration when stages took turns row by row
+        @Label("Stage Time")
+        @Timespan
+        long stageTime;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocatedBytes;
+    }
+}
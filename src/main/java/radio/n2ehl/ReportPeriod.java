@@ -0,0 +1,139 @@
+package radio.n2ehl;
+
+import org.apache.commons.text.WordUtils;
+
+import java.time.DateTimeException;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The run of months a report covers, from the month, quarter, calendar year or fiscal year start
+ * up to and including the last month being reported on.
+ */
+public class ReportPeriod {
+    static final String FISCAL_YEAR_START_SETTING = "fiscal_year_start";
+
+    static final String MONTH = "month";
+    static final String QUARTER = "quarter";
+    static final String YEAR_TO_DATE = "ytd";
+    static final String FISCAL_YEAR = "fiscal-year";
+
+    private final YearMonth firstMonth;
+    private final YearMonth lastMonth;
+    private final String label;
+
+    ReportPeriod(final YearMonth firstMonth, final YearMonth lastMonth, final String label) {
+        this.firstMonth = firstMonth;
+        this.lastMonth = lastMonth;
+        this.label = label;
+    }
+
+    public static ReportPeriod month(final YearMonth month) {
+        return new ReportPeriod(month, month, monthName(month.getMonth()) + " " + month.getYear());
+    }
+
+    /**
+     * The quarter containing lastMonth, up to lastMonth.
+     */
+    public static ReportPeriod quarterToDate(final YearMonth lastMonth) {
+        final int quarter = (lastMonth.getMonthValue() - 1) / 3 + 1;
+        final YearMonth firstMonth = YearMonth.of(lastMonth.getYear(), lastMonth.getMonth().firstMonthOfQuarter());
+        final String label = "Q" + quarter + " " + lastMonth.getYear();
+        return new ReportPeriod(firstMonth, lastMonth, lastMonth.getMonthValue() % 3 == 0 ? label : label + " (" + range(firstMonth, lastMonth) + ")");
+    }
+
+    public static ReportPeriod yearToDate(final YearMonth lastMonth) {
+        final YearMonth firstMonth = YearMonth.of(lastMonth.getYear(), Month.JANUARY);
+        return new ReportPeriod(firstMonth, lastMonth, lastMonth.getYear() + " Year to Date (" + range(firstMonth, lastMonth) + ")");
+    }
+
+    /**
+     * The fiscal year containing lastMonth, up to lastMonth.
+     * Fiscal years are named for the calendar year they end in.
+     */
+    public static ReportPeriod fiscalYearToDate(final YearMonth lastMonth, final Month fiscalYearStart) {
+        final int startYear = lastMonth.getMonthValue() >= fiscalYearStart.getValue() ? lastMonth.getYear() : lastMonth.getYear() - 1;
+        final YearMonth firstMonth = YearMonth.of(startYear, fiscalYearStart);
+        final int fiscalYear = firstMonth.plusMonths(11).getYear();
+        // years are spelled out unless the fiscal year is the calendar year, "July - September" alone doesn't say which July
+        final String months = fiscalYear == firstMonth.getYear() ? range(firstMonth, lastMonth)
+                : monthName(firstMonth.getMonth()) + " " + firstMonth.getYear() + " - " + monthName(lastMonth.getMonth()) + " " + lastMonth.getYear();
+        return new ReportPeriod(firstMonth, lastMonth, "Fiscal Year " + fiscalYear + " (" + months + ")");
+    }
+
+    /**
+     * The period of the given kind (month, quarter, ytd or fiscal-year) that ends with lastMonth.
+     */
+    public static ReportPeriod of(final String kind, final YearMonth lastMonth, final ReportConfig config) {
+        switch (kind.toLowerCase(Locale.ROOT)) {
+            case MONTH:
+                return month(lastMonth);
+            case QUARTER:
+                return quarterToDate(lastMonth);
+            case YEAR_TO_DATE:
+                return yearToDate(lastMonth);
+            case FISCAL_YEAR:
+                return fiscalYearToDate(lastMonth, fiscalYearStart(config));
+            default:
+                throw new IllegalArgumentException("unknown report period: " + kind + ", expected one of "
+                        + String.join(", ", MONTH, QUARTER, YEAR_TO_DATE, FISCAL_YEAR));
+        }
+    }
+
+    /**
+     * The month the fiscal year starts in, from the "fiscal_year_start" setting as a number or month name. January by default.
+     */
+    static Month fiscalYearStart(final ReportConfig config) {
+        final String setting = config.get(FISCAL_YEAR_START_SETTING);
+        if (setting == null || setting.isBlank()) {
+            return Month.JANUARY;
+        }
+
+        final String value = setting.trim();
+        try {
+            return value.chars().allMatch(Character::isDigit) ? Month.of(Integer.parseInt(value)) : Month.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (DateTimeException | IllegalArgumentException ex) {
+            throw new IllegalArgumentException("invalid " + FISCAL_YEAR_START_SETTING + ": " + setting);
+        }
+    }
+
+    static String range(final YearMonth firstMonth, final YearMonth lastMonth) {
+        if (firstMonth.equals(lastMonth)) {
+            return monthName(firstMonth.getMonth());
+        }
+        if (firstMonth.getYear() == lastMonth.getYear()) {
+            return monthName(firstMonth.getMonth()) + " - " + monthName(lastMonth.getMonth());
+        }
+        return monthName(firstMonth.getMonth()) + " " + firstMonth.getYear() + " - " + monthName(lastMonth.getMonth()) + " " + lastMonth.getYear();
+    }
+
+    static String monthName(final Month month) {
+        return WordUtils.capitalizeFully(month.name());
+    }
+
+    public YearMonth getFirstMonth() {
+        return firstMonth;
+    }
+
+    public YearMonth getLastMonth() {
+        return lastMonth;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * The months in the period, oldest first.
+     */
+    public List<YearMonth> months() {
+        final List<YearMonth> months = new ArrayList<>();
+        for (YearMonth month = firstMonth; !month.isAfter(lastMonth); month = month.plusMonths(1)) {
+            months.add(month);
+        }
+        return months;
+    }
+}
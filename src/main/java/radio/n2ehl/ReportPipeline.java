@@ -0,0 +1,145 @@
+package radio.n2ehl;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * Runs a report end to end, from the Quicken CSV export to the PDF.
+ * The markdown document is passed along in memory, and the PDF is only moved into place once it's complete.
+ */
+public class ReportPipeline {
+    static final String PENDING_EXTENSION = ".pending";
+
+    public static void renderPdf(final Path csvPath, final BigDecimal startingBalance, final BigDecimal endingBalance, final Path pdfPath) throws IOException {
+        renderPdf(csvPath, startingBalance, endingBalance, pdfPath, null);
+    }
+
+    /**
+     * Renders the report for a CSV export, also recording its transactions in the ledger if one is given.
+     * A report that was rendered before is copied from the report cache, unless it has to be recorded in a ledger.
+     */
+    public static void renderPdf(final Path csvPath, final BigDecimal startingBalance, final BigDecimal endingBalance, final Path pdfPath,
+                                 final TransactionLedger ledger) throws IOException {
+        final ReportConfig config = ReportConfig.load();
+        final ReportCache cache = ReportCache.fromConfig(config);
+        final String cacheKey = cache.isEnabled() ? ReportCache.key(csvPath, startingBalance, endingBalance, config) : null;
+        if (ledger == null && cache.copyTo(cacheKey, pdfPath)) {
+            System.out.println("Using the cached report for " + csvPath);
+            return;
+        }
+
+        final ReportGenerator generator = new ReportGenerator(startingBalance, endingBalance, config);
+        generator.setLedger(ledger);
+        final String markdown = generator.generate(csvPath);
+        if (markdown == null) {
+            throw new IOException("could not generate the report from " + csvPath);
+        }
+        writePdf(markdown, pdfPath, generator.getMetrics());
+        cache.put(cacheKey, pdfPath);
+    }
+
+    /**
+     * Renders one report from several CSV exports, such as one per account, merged by date.
+     * As with a single export, the transactions are also recorded in the ledger if one is given.
+     */
+    public static void renderPdf(final List<Path> csvPaths, final BigDecimal startingBalance, final BigDecimal endingBalance, final Path pdfPath,
+                                 final TransactionLedger ledger) throws IOException {
+        final ReportConfig config = ReportConfig.load();
+        final ReportCache cache = ReportCache.fromConfig(config);
+        final String cacheKey = cache.isEnabled() ? ReportCache.key(csvPaths, startingBalance, endingBalance, config) : null;
+        if (ledger == null && cache.copyTo(cacheKey, pdfPath)) {
+            System.out.println("Using the cached report for " + csvPaths);
+            return;
+        }
+
+        final ReportGenerator generator = new ReportGenerator(startingBalance, endingBalance, config);
+        generator.setLedger(ledger);
+        final String markdown = generator.generate(csvPaths);
+        if (markdown == null) {
+            throw new IOException("could not generate the report from " + csvPaths);
+        }
+        writePdf(markdown, pdfPath, generator.getMetrics());
+        cache.put(cacheKey, pdfPath);
+    }
+
+    /**
+     * Renders the report for a month that was recorded in the ledger.
+     */
+    public static void renderPdf(final TransactionLedger ledger, final YearMonth month, final BigDecimal startingBalance, final BigDecimal endingBalance,
+                                 final Path pdfPath) throws IOException {
+        renderPdf(ledger, ReportPeriod.month(month), startingBalance, endingBalance, pdfPath);
+    }
+
+    /**
+     * Renders the report for a period of months recorded in the ledger, such as a quarter or year to date.
+     */
+    public static void renderPdf(final TransactionLedger ledger, final ReportPeriod period, final BigDecimal startingBalance, final BigDecimal endingBalance,
+                                 final Path pdfPath) throws IOException {
+        final ReportGenerator generator = new ReportGenerator(startingBalance, endingBalance, ReportConfig.load());
+        final String markdown = generator.generate(ledger, period);
+        writePdf(markdown, pdfPath, generator.getMetrics());
+    }
+
+    /**
+     * Writes the PDF, then prints the run's metrics summary line.
+     */
+    static void writePdf(final String markdown, final Path pdfPath, final ReportMetrics metrics) throws IOException {
+        writeAtomically(pdfPath, pdfOutput ->
+                MarkdownToPdfConverter.getInstance().render(markdown, pdfOutput, metrics, metrics.getRows(ReportMetrics.Stage.CATEGORIZATION)));
+        System.out.println(metrics.summaryLine());
+    }
+
+    /**
+     * Writes a file by way of a pending file next to it, which is moved into place once the writer has finished.
+     * If the writer fails the pending file is deleted, so a failed render never leaves a truncated PDF
+     * that looks like a report, and whatever was at the path before is left as it was.
+     */
+    static void writeAtomically(final Path path, final OutputWriter writer) throws IOException {
+        final Path pending = path.resolveSibling(path.getFileName() + PENDING_EXTENSION + "-" + Thread.currentThread().getId());
+        try {
+            try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(pending))) {
+                writer.write(output);
+            }
+            Files.move(pending, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(pending);
+        }
+    }
+
+    @FunctionalInterface
+    interface OutputWriter {
+        void write(OutputStream output) throws IOException;
+    }
+
+    /**
+     * Reads the CSV export from csvInput, and writes the PDF to pdfOutput.
+     * The reader is closed, the output stream is not.
+     */
+    public static void renderPdf(final Reader csvInput, final BigDecimal startingBalance, final BigDecimal endingBalance, final OutputStream pdfOutput) throws IOException {
+        final ReportGenerator generator = new ReportGenerator(startingBalance, endingBalance, ReportConfig.load());
+        final String markdown = generateMarkdown(generator, csvInput);
+        final ReportMetrics metrics = generator.getMetrics();
+        MarkdownToPdfConverter.getInstance().render(markdown, pdfOutput, metrics, metrics.getRows(ReportMetrics.Stage.CATEGORIZATION));
+        System.out.println(metrics.summaryLine());
+    }
+
+    static String generateMarkdown(final Reader csvInput, final BigDecimal startingBalance, final BigDecimal endingBalance) throws IOException {
+        return generateMarkdown(new ReportGenerator(startingBalance, endingBalance, ReportConfig.load()), csvInput);
+    }
+
+    static String generateMarkdown(final ReportGenerator generator, final Reader csvInput) throws IOException {
+        final String markdown = generator.generate(csvInput);
+        if (markdown == null) {
+            throw new IOException("could not generate the report from the CSV export");
+        }
+        return markdown;
+    }
+}
@@ -0,0 +1,215 @@
+package radio.n2ehl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local HTTP service for generating reports from other tools, without starting the JavaFX app
+ * or paying for a cold JVM and renderer per report.
+ *
+ * POST /report?starting_balance=1234.56&amp;ending_balance=1500.00 with the Quicken CSV export as the request body
+ * (e.g. curl --data-binary @export.csv) responds with the PDF. GET /health responds "ok".
+ *
+ * Requests are handled on a pool of threads several times the number of renderers, so slow uploads and downloads
+ * don't hold up rendering, and at most `renderers` reports are generated at once, since that part is CPU bound.
+ * Requests beyond that wait their turn. Uploads are limited to MAX_UPLOAD_BYTES.
+ */
+public class ReportServer {
+    static final String REPORT_PATH = "/report";
+    static final String HEALTH_PATH = "/health";
+
+    // handler threads per renderer, for requests that are uploading or downloading rather than rendering
+    static final int HANDLERS_PER_RENDERER = 4;
+    static final int MAX_UPLOAD_BYTES = 64 * 1024 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final Semaphore renderPermits;
+
+    public ReportServer(final InetSocketAddress address, final int renderers) throws IOException {
+        if (renderers < 1) {
+            throw new IllegalArgumentException("renderers must be at least 1");
+        }
+        renderPermits = new Semaphore(renderers, true);
+        handlers = Executors.newFixedThreadPool(renderers * HANDLERS_PER_RENDERER);
+
+        server = HttpServer.create(address, 0);
+        server.setExecutor(handlers);
+        server.createContext(REPORT_PATH, this::handleReport);
+        server.createContext(HEALTH_PATH, exchange -> respond(exchange, 200, "ok"));
+    }
+
+    /**
+     * Starts serving, once the renderer is warmed up so the first request isn't slower than the rest.
+     */
+    public void start() {
+        MarkdownToPdfConverter.getInstance().warmUp();
+        server.start();
+        System.out.println("Serving reports on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + REPORT_PATH);
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public void stop() {
+        server.stop(1);
+        handlers.shutdownNow();
+    }
+
+    void handleReport(final HttpExchange exchange) throws IOException {
+        // closed only once any error response has been sent
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respond(exchange, 405, "POST the CSV export to " + REPORT_PATH);
+                return;
+            }
+
+            final Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            final BigDecimal startingBalance;
+            final BigDecimal endingBalance;
+            final Charset charset;
+            try {
+                startingBalance = ReportJob.parseBalance(query.get(ReportJob.STARTING_BALANCE), ReportJob.STARTING_BALANCE);
+                endingBalance = ReportJob.parseBalance(query.get(ReportJob.ENDING_BALANCE), ReportJob.ENDING_BALANCE);
+                charset = requestCharset(exchange.getRequestHeaders().getFirst("Content-Type"));
+            } catch (IllegalArgumentException ex) {
+                respond(exchange, 400, ex.getMessage());
+                return;
+            }
+
+            // the upload is read in full before rendering, and the PDF rendered in full before it's sent,
+            // so a slow client only ties up its handler thread, never a renderer
+            final byte[] csv = exchange.getRequestBody().readNBytes(MAX_UPLOAD_BYTES + 1);
+            if (csv.length > MAX_UPLOAD_BYTES) {
+                respond(exchange, 413, "the CSV export is larger than " + MAX_UPLOAD_BYTES + " bytes");
+                return;
+            }
+
+            if (csv.length == 0) {
+                respond(exchange, 400, "POST the CSV export as the request body");
+                return;
+            }
+
+            final ByteArrayOutputStream pdf = new ByteArrayOutputStream(csv.length / 4 + 65_536);
+            final boolean rendered;
+            renderPermits.acquire();
+            try {
+                rendered = render(csv, charset, startingBalance, endingBalance, pdf);
+            } finally {
+                // released before any response is sent, so neither an error nor a slow client holds a renderer
+                renderPermits.release();
+            }
+            if (!rendered) {
+                respond(exchange, 400, "could not generate a report from the CSV export");
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/pdf");
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"report.pdf\"");
+            exchange.sendResponseHeaders(200, pdf.size());
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                pdf.writeTo(responseBody);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            if (exchange.getResponseCode() == -1) {
+                respond(exchange, 503, "the server is shutting down");
+            }
+        } catch (IOException | RuntimeException ex) {
+            LogManager.getLogger().error("report request failed", ex);
+            if (exchange.getResponseCode() == -1) {
+                respond(exchange, 500, "could not render the report: " + ex.getMessage());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Renders the report into pdf, returning false if the export couldn't be made into a report.
+     */
+    private static boolean render(final byte[] csv, final Charset charset, final BigDecimal startingBalance, final BigDecimal endingBalance,
+                                  final ByteArrayOutputStream pdf) throws IOException {
+        final ReportGenerator generator = new ReportGenerator(startingBalance, endingBalance, ReportConfig.load());
+        final String markdown = generator.generate(new InputStreamReader(new ByteArrayInputStream(csv), charset));
+        if (markdown == null) {
+            return false;
+        }
+        final ReportMetrics metrics = generator.getMetrics();
+        MarkdownToPdfConverter.getInstance().render(markdown, pdf, metrics, metrics.getRows(ReportMetrics.Stage.CATEGORIZATION));
+        System.out.println(metrics.summaryLine());
+        return true;
+    }
+
+    static Map<String, String> parseQuery(final String rawQuery) {
+        final Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            final int equals = pair.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    /**
+     * The charset parameter of the content type, or the platform charset that exports read from files are read in.
+     */
+    static Charset requestCharset(final String contentType) {
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                final String[] pieces = parameter.trim().split("=", 2);
+                if (pieces.length == 2 && pieces[0].equalsIgnoreCase("charset")) {
+                    try {
+                        return Charset.forName(pieces[1].trim().replace("\"", ""));
+                    } catch (IllegalCharsetNameException | UnsupportedCharsetException ex) {
+                        throw new IllegalArgumentException("unsupported charset: " + pieces[1]);
+                    }
+                }
+            }
+        }
+        return Charset.defaultCharset();
+    }
+
+    static void respond(final HttpExchange exchange, final int status, final String message) throws IOException {
+        final byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+
+    /**
+     * Serves until the process is stopped.
+     */
+    public void awaitTermination() throws InterruptedException {
+        handlers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+}
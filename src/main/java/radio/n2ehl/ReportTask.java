@@ -0,0 +1,92 @@
+package radio.n2ehl;
+
+import javafx.concurrent.Task;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.logging.log4j.LogManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.text.NumberFormat;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Generates a report on a background thread, so the window stays responsive while a large export is processed.
+ * Progress is published as the current stage and the number of rows processed, and the task can be cancelled
+ * until the PDF is written.
+ */
+public class ReportTask extends Task<File> {
+    static final String STAGE_RENDERING = "Rendering PDF";
+
+    // share of the progress bar given to reading the CSV, the rest is markdown and PDF rendering
+    static final double PARSING_WORK = 0.8;
+
+    private final File inputCSVFile;
+    private final BigDecimal startingBalance;
+    private final BigDecimal endingBalance;
+    private final File outputPdfFile;
+
+    public ReportTask(final File inputCSVFile, final BigDecimal startingBalance, final BigDecimal endingBalance, final File outputPdfFile) {
+        this.inputCSVFile = inputCSVFile;
+        this.startingBalance = startingBalance;
+        this.endingBalance = endingBalance;
+        this.outputPdfFile = outputPdfFile;
+    }
+
+    @Override
+    protected File call() throws Exception {
+        final ReportConfig config = ReportConfig.load();
+        final ReportCache cache = ReportCache.fromConfig(config);
+        final String cacheKey = cache.isEnabled() ? ReportCache.key(inputCSVFile.toPath(), startingBalance, endingBalance, config) : null;
+        if (cache.copyTo(cacheKey, outputPdfFile.toPath())) {
+            updateMessage("Done (unchanged since it was last generated)");
+            updateProgress(1, 1);
+            return outputPdfFile;
+        }
+
+        final long csvSize = Math.max(inputCSVFile.length(), 1);
+        final CountingInputStream csvInput = new CountingInputStream(new FileInputStream(inputCSVFile));
+
+        final ReportGenerator generator = new ReportGenerator(startingBalance, endingBalance, config);
+        generator.setProgressListener((stage, rowsProcessed) -> {
+            updateMessage(stage + " (" + NumberFormat.getIntegerInstance().format(rowsProcessed) + " rows)");
+            if (ReportGenerator.STAGE_PARSING.equals(stage)) {
+                updateProgress(PARSING_WORK * Math.min(csvInput.getByteCount(), csvSize) / csvSize, 1);
+            } else {
+                updateProgress(PARSING_WORK, 1);
+            }
+        });
+
+        final String markdown = generator.generate(new InputStreamReader(csvInput));
+        if (isCancelled()) {
+            return null;
+        }
+        if (markdown == null) {
+            throw new IOException("Could not generate a report from " + inputCSVFile.getName());
+        }
+
+        updateMessage(STAGE_RENDERING);
+        updateProgress(0.9, 1);
+        final ReportMetrics metrics = generator.getMetrics();
+        try {
+            // a render that fails or is cancelled leaves nothing at the output path
+            ReportPipeline.writeAtomically(outputPdfFile.toPath(), pdfOutput -> {
+                MarkdownToPdfConverter.getInstance().render(markdown, pdfOutput, metrics, metrics.getRows(ReportMetrics.Stage.CATEGORIZATION));
+                if (isCancelled()) {
+                    throw new CancellationException("report generation was cancelled");
+                }
+            });
+        } catch (CancellationException ex) {
+            return null;
+        }
+        LogManager.getLogger().info(metrics.summaryLine());
+
+        cache.put(cacheKey, outputPdfFile.toPath());
+
+        updateMessage("Done");
+        updateProgress(1, 1);
+        return outputPdfFile;
+    }
+}
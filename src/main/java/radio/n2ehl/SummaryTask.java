@@ -0,0 +1,30 @@
+package radio.n2ehl;
+
+import javafx.concurrent.Task;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Reads a CSV export on a background thread for the window's summary of its totals.
+ * The totals don't depend on the balances, so an export is read once when it's selected,
+ * and editing a balance only updates the figures worked out from it.
+ */
+class SummaryTask extends Task<ReportGenerator.Summary> {
+    private final File inputCSVFile;
+
+    SummaryTask(final File inputCSVFile) {
+        this.inputCSVFile = inputCSVFile;
+    }
+
+    @Override
+    protected ReportGenerator.Summary call() throws Exception {
+        // the transactions are kept for drilling down into the categories
+        final ReportGenerator generator = new ReportGenerator(BigDecimal.ZERO, BigDecimal.ZERO, ReportConfig.load(), true);
+        if (generator.generate(inputCSVFile.toPath()) == null) {
+            throw new IOException("Could not read the transactions in " + inputCSVFile.getName());
+        }
+        return generator.getSummary();
+    }
+}
@@ -0,0 +1,154 @@
+package radio.n2ehl;
+
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.SplitPane;
+import javafx.scene.control.TableCell;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeView;
+import javafx.scene.layout.BorderPane;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import radio.n2ehl.ReportGenerator.Category;
+
+/**
+ * A window for looking through the transactions behind the summary, category by category.
+ *
+ * Picking a category or subcategory in the tree shows its transactions in a TableView backed by a TransactionRows,
+ * so only the rows scrolled into view are ever turned into objects, however many transactions there are.
+ * The date, payee and amount columns sort by reordering row numbers, not rows.
+ */
+class TransactionDrillDown {
+    static final double ROW_HEIGHT = 24;
+
+    private final TableView<TransactionRows.Row> table = new TableView<>();
+    private final Label lblRowCount = new Label();
+    private final Stage stage = new Stage();
+
+    TransactionDrillDown(final Window owner, final ReportGenerator.Summary summary) {
+        final TreeItem<Node> root = new TreeItem<>(new Node(summary.reportPeriod, List.of()));
+        root.getChildren().add(categoryTree("Income", summary.aggregate.creditCategories));
+        root.getChildren().add(categoryTree("Expenses", summary.aggregate.debitCategories));
+        root.setExpanded(true);
+
+        final TreeView<Node> tree = new TreeView<>(root);
+        tree.getSelectionModel().selectedItemProperty().addListener((observable, oldItem, newItem) ->
+                show(newItem != null ? newItem.getValue() : null));
+
+        table.getColumns().add(column("Date", TransactionRows.SortKey.DATE, TransactionRows.Row::getDate, false));
+        table.getColumns().add(column("Payee", TransactionRows.SortKey.PAYEE, TransactionRows.Row::getPayee, false));
+        table.getColumns().add(column("Category", null, TransactionRows.Row::getCategory, false));
+        table.getColumns().add(column("Amount", TransactionRows.SortKey.AMOUNT, row -> Cents.toPlainString(row.getAmount()), true));
+        table.getColumns().add(column("Account", null, TransactionRows.Row::getAccount, false));
+        table.getColumns().add(column("Notes", null, TransactionRows.Row::getNotes, false));
+        // every row the same height lets the TableView work out what's in view without measuring rows
+        table.setFixedCellSize(ROW_HEIGHT);
+        table.setPlaceholder(new Label("Pick a category to see its transactions"));
+        table.setSortPolicy(view -> {
+            if (view.getItems() instanceof TransactionRows) {
+                final List<TransactionRows.Sort> sorts = new ArrayList<>();
+                for (TableColumn<TransactionRows.Row, ?> column : view.getSortOrder()) {
+                    sorts.add(new TransactionRows.Sort((TransactionRows.SortKey) column.getUserData(),
+                            column.getSortType() == TableColumn.SortType.DESCENDING));
+                }
+                ((TransactionRows) view.getItems()).sort(sorts);
+            }
+            return true;
+        });
+
+        final BorderPane tablePane = new BorderPane(table);
+        tablePane.setBottom(lblRowCount);
+        BorderPane.setAlignment(lblRowCount, Pos.CENTER_RIGHT);
+        final SplitPane splitPane = new SplitPane(tree, tablePane);
+        splitPane.setDividerPositions(0.3);
+
+        stage.initOwner(owner);
+        stage.setTitle("Transactions for " + summary.reportPeriod);
+        stage.setScene(new Scene(splitPane, 1000, 600));
+    }
+
+    void show() {
+        stage.show();
+    }
+
+    private static TreeItem<Node> categoryTree(final String label, final Map<String, Category> categories) {
+        final List<TransactionTable> allTables = new ArrayList<>();
+        final List<TreeItem<Node>> categoryItems = new ArrayList<>();
+        categories.forEach((categoryName, category) -> {
+            final List<TransactionTable> categoryTables = new ArrayList<>();
+            final List<TreeItem<Node>> subcategoryItems = new ArrayList<>();
+            category.subcategories.forEach((subcategoryName, subcategory) -> {
+                categoryTables.add(subcategory.transactions);
+                subcategoryItems.add(new TreeItem<>(new Node(subcategoryName, List.of(subcategory.transactions))));
+            });
+            allTables.addAll(categoryTables);
+            final TreeItem<Node> categoryItem = new TreeItem<>(new Node(categoryName, categoryTables));
+            categoryItem.getChildren().setAll(subcategoryItems);
+            categoryItems.add(categoryItem);
+        });
+
+        final TreeItem<Node> item = new TreeItem<>(new Node(label, allTables));
+        item.getChildren().setAll(categoryItems);
+        item.setExpanded(true);
+        return item;
+    }
+
+    private void show(final Node node) {
+        final TransactionRows rows = new TransactionRows(node != null ? node.tables : List.of());
+        table.setItems(rows);
+        // keep the sort the user picked
+        table.sort();
+        lblRowCount.setText(NumberFormat.getIntegerInstance().format(rows.size()) + " transactions");
+    }
+
+    private static <T> TableColumn<TransactionRows.Row, T> column(final String title, final TransactionRows.SortKey sortKey,
+                                                                  final Function<TransactionRows.Row, T> value, final boolean alignRight) {
+        final TableColumn<TransactionRows.Row, T> column = new TableColumn<>(title);
+        column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.apply(cell.getValue())));
+        column.setUserData(sortKey);
+        column.setSortable(sortKey != null);
+        if (alignRight) {
+            column.setCellFactory(c -> {
+                final TableCell<TransactionRows.Row, T> cell = new TableCell<>() {
+                    @Override
+                    protected void updateItem(final T item, final boolean empty) {
+                        super.updateItem(item, empty);
+                        setText(empty || item == null ? null : item.toString());
+                    }
+                };
+                cell.setAlignment(Pos.CENTER_RIGHT);
+                return cell;
+            });
+        }
+        return column;
+    }
+
+    /**
+     * A category or subcategory in the tree, and the tables of its transactions.
+     */
+    private static class Node {
+        final String label;
+        final List<TransactionTable> tables;
+
+        Node(final String label, final List<TransactionTable> tables) {
+            this.label = label;
+            this.tables = tables;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+}
@@ -0,0 +1,565 @@
+package radio.n2ehl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import radio.n2ehl.ReportGenerator.Category;
+import radio.n2ehl.ReportGenerator.Payee;
+import radio.n2ehl.ReportGenerator.Subcategory;
+import radio.n2ehl.ReportGenerator.Transaction;
+
+/**
+ * A local store of parsed transactions, so past months can be reported on again without re-exporting
+ * and re-parsing their CSVs.
+ *
+ * The ledger is a directory with one compact binary file per month ("2022-03.ledger").
+ * A month's file only changes once a run recording it has finished, so a failed run never leaves a partial month
+ * behind. Each account is recorded for a month from the first export that has it, so the exports of several
+ * accounts add up to the month. A later export of an account the month already holds is skipped with a message,
+ * unless the ledger replaces months (see replacingMonths()), as when a month was recorded from a partial export
+ * and has been exported again. Month files are memory-mapped for reading.
+ *
+ * While a month is being recorded each run has its own pending file for it, locked by the run. A pending file that
+ * nothing holds a lock on was left by a run that died, and is removed when the next appender starts.
+ *
+ * Next to each month's transactions is its rollup ("2022-03.rollup"), the month's category, subcategory and payee
+ * totals and its largest transactions, so reports over several months only merge a small rollup per month
+ * instead of reading every transaction.
+ */
+public class TransactionLedger {
+    static final String LEDGER_DIR_SETTING = "ledger_dir";
+    static final String DEFAULT_LEDGER_DIR = ".treasurer-report-ledger";
+    static final String EXTENSION = ".ledger";
+    static final String PENDING_EXTENSION = ".pending";
+    static final String ROLLUP_EXTENSION = ".rollup";
+    static final String LOCK_FILENAME = "ledger.lock";
+
+    static final int MAGIC = 0x54524C47; // "TRLG"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int ROLLUP_MAGIC = 0x54525255; // "TRRU"
+    // version 1 rollups had no payee totals or largest transactions
+    static final int ROLLUP_VERSION = 2;
+
+    // appenders in this process commit one at a time; the ledger's lock file does the same across processes
+    private static final Object COMMIT_LOCK = new Object();
+    private static final AtomicLong PENDING_IDS = new AtomicLong();
+
+    private final Path directory;
+    private final boolean replaceMonths;
+
+    public TransactionLedger(final Path directory) {
+        this(directory, false);
+    }
+
+    private TransactionLedger(final Path directory, final boolean replaceMonths) {
+        this.directory = directory;
+        this.replaceMonths = replaceMonths;
+    }
+
+    /**
+     * The same ledger, but its appenders record every account they're given again, replacing what was recorded
+     * for the account in each month they have transactions for. Other accounts' transactions are left as they were.
+     */
+    public TransactionLedger replacingMonths() {
+        return new TransactionLedger(directory, true);
+    }
+
+    /**
+     * The ledger in the "ledger_dir" setting's directory, or ~/.treasurer-report-ledger by default.
+     */
+    public static TransactionLedger fromConfig(final ReportConfig config) {
+        final String ledgerDir = config.get(LEDGER_DIR_SETTING);
+        return new TransactionLedger(ledgerDir != null ? Path.of(ledgerDir.trim()) : Path.of(System.getProperty("user.home"), DEFAULT_LEDGER_DIR));
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public boolean contains(final YearMonth month) {
+        return Files.exists(partitionPath(month));
+    }
+
+    /**
+     * The recorded months, oldest first.
+     */
+    public List<YearMonth> months() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+
+        final List<YearMonth> months = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(EXTENSION))
+                    .forEach(name -> {
+                        try {
+                            months.add(YearMonth.parse(name.substring(0, name.length() - EXTENSION.length())));
+                        } catch (DateTimeParseException ex) {
+                            // not a month partition
+                        }
+                    });
+        }
+        months.sort(null);
+        return months;
+    }
+
+    Path partitionPath(final YearMonth month) {
+        return directory.resolve(month + EXTENSION);
+    }
+
+    Path rollupPath(final YearMonth month) {
+        return directory.resolve(month + ROLLUP_EXTENSION);
+    }
+
+    /**
+     * The totals of a recorded month, or null if the month isn't in the ledger.
+     * A month recorded without a rollup, or with an older version of one, has its rollup built from its transactions, once.
+     */
+    ReportAggregate readRollup(final YearMonth month) throws IOException {
+        if (!contains(month)) {
+            return null;
+        }
+
+        final Path path = rollupPath(month);
+        if (Files.exists(path)) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                final int magic = input.readInt();
+                final int version = input.readInt();
+                if (magic != ROLLUP_MAGIC || version < 1 || version > ROLLUP_VERSION) {
+                    throw new IOException("not a version " + ROLLUP_VERSION + " rollup file: " + path);
+                }
+
+                if (version == ROLLUP_VERSION) {
+                    final ReportAggregate rollup = new ReportAggregate(false);
+                    readCategories(input, rollup.creditCategories, rollup.dictionary);
+                    readCategories(input, rollup.debitCategories, rollup.dictionary);
+                    readPayees(input, rollup);
+                    return rollup;
+                }
+            }
+        }
+
+        final ReportAggregate rollup = new ReportAggregate(false);
+        read(month, rollup::categorizeTransaction);
+        writeRollup(month, rollup);
+        return rollup;
+    }
+
+    private static void readCategories(final DataInputStream input, final Map<String, Category> categoryMap,
+                                       final TransactionTable.Dictionary dictionary) throws IOException {
+        final int categoryCount = input.readInt();
+        for (int i = 0; i < categoryCount; i++) {
+            final Category category = new Category(input.readUTF(), input.readLong(), new HashMap<>());
+            final int subcategoryCount = input.readInt();
+            for (int j = 0; j < subcategoryCount; j++) {
+                final Subcategory subcategory = new Subcategory(input.readUTF(), input.readLong(), new TransactionTable(dictionary));
+                category.subcategories.put(subcategory.name, subcategory);
+            }
+            categoryMap.put(category.name, category);
+        }
+    }
+
+    private static void readPayees(final DataInputStream input, final ReportAggregate rollup) throws IOException {
+        final int payeeCount = input.readInt();
+        for (int i = 0; i < payeeCount; i++) {
+            final Payee payee = new Payee(input.readUTF(), input.readLong(), input.readLong());
+            rollup.payees.put(payee.name, payee);
+        }
+        final int largestCount = input.readInt();
+        for (int i = 0; i < largestCount; i++) {
+            rollup.offerLargest(Transaction.builder()
+                    .transactionDate(LocalDate.ofEpochDay(input.readInt()))
+                    .amount(input.readLong())
+                    .payee(input.readUTF())
+                    .category(input.readUTF())
+                    .subCategory(input.readUTF())
+                    .account(input.readUTF())
+                    .notes(input.readUTF())
+                    .build());
+        }
+    }
+
+    /**
+     * Writes (or replaces) a month's rollup. The categories are written in iteration order,
+     * so merging rollups gives the same category order as a single pass over the transactions.
+     */
+    void writeRollup(final YearMonth month, final ReportAggregate rollup) throws IOException {
+        Files.createDirectories(directory);
+        final Path pending = directory.resolve(month + ROLLUP_EXTENSION + PENDING_EXTENSION + "-" + Thread.currentThread().getId());
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(pending)))) {
+                output.writeInt(ROLLUP_MAGIC);
+                output.writeInt(ROLLUP_VERSION);
+                writeCategories(output, rollup.creditCategories);
+                writeCategories(output, rollup.debitCategories);
+                writePayees(output, rollup);
+            }
+            Files.move(pending, rollupPath(month), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(pending);
+        }
+    }
+
+    private static void writeCategories(final DataOutputStream output, final Map<String, Category> categoryMap) throws IOException {
+        output.writeInt(categoryMap.size());
+        for (Category category : categoryMap.values()) {
+            output.writeUTF(category.name);
+            output.writeLong(category.total);
+            output.writeInt(category.subcategories.size());
+            for (Subcategory subcategory : category.subcategories.values()) {
+                output.writeUTF(subcategory.name);
+                output.writeLong(subcategory.total);
+            }
+        }
+    }
+
+    private static void writePayees(final DataOutputStream output, final ReportAggregate rollup) throws IOException {
+        output.writeInt(rollup.payees.size());
+        for (Payee payee : rollup.payees.values()) {
+            output.writeUTF(payee.name);
+            output.writeLong(payee.inflow);
+            output.writeLong(payee.outflow);
+        }
+        output.writeInt(rollup.largestTransactions.size());
+        for (Transaction transaction : rollup.largestTransactions) {
+            output.writeInt((int) transaction.transactionDate.toEpochDay());
+            output.writeLong(transaction.amount);
+            // as in the month files, a missing string is read back as an empty one
+            output.writeUTF(Objects.toString(transaction.payee, ""));
+            output.writeUTF(Objects.toString(transaction.category, ""));
+            output.writeUTF(Objects.toString(transaction.subCategory, ""));
+            output.writeUTF(Objects.toString(transaction.account, ""));
+            output.writeUTF(Objects.toString(transaction.notes, ""));
+        }
+    }
+
+    /**
+     * Reads every transaction recorded for the month, in the order they were recorded, returning how many there were.
+     */
+    public long read(final YearMonth month, final Consumer<Transaction> consumer) throws IOException {
+        final Path path = partitionPath(month);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readRecords(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path, consumer::accept);
+        }
+    }
+
+    /**
+     * Reads the month's records into memory rather than mapping them, for a month file that's about to be replaced,
+     * which can't be done while it's mapped on some platforms.
+     */
+    private long readUnmapped(final YearMonth month, final RecordConsumer consumer) throws IOException {
+        final Path path = partitionPath(month);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readRecords(readFully(channel), path, consumer);
+        } catch (NoSuchFileException ex) {
+            return 0;
+        }
+    }
+
+    private static ByteBuffer readFully(final FileChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+        long position = 0;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        return buffer.flip();
+    }
+
+    private static long readRecords(final ByteBuffer buffer, final Path path, final RecordConsumer consumer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("not a version " + VERSION + " ledger file: " + path);
+        }
+
+        long count = 0;
+        while (buffer.remaining() >= Integer.BYTES) {
+            final int recordLength = buffer.getInt();
+            if (recordLength > buffer.remaining()) {
+                throw new IOException("truncated record " + count + " in " + path);
+            }
+
+            consumer.accept(Transaction.builder()
+                    .transactionDate(LocalDate.ofEpochDay(buffer.getInt()))
+                    .amount(buffer.getLong())
+                    .payee(readString(buffer))
+                    .category(readString(buffer))
+                    .subCategory(readString(buffer))
+                    .account(readString(buffer))
+                    .notes(readString(buffer))
+                    .build());
+            count++;
+        }
+        return count;
+    }
+
+    @FunctionalInterface
+    private interface RecordConsumer {
+        void accept(Transaction transaction) throws IOException;
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final int length = Short.toUnsignedInt(buffer.getShort());
+        if (length == 0) {
+            return "";
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // the account a transaction is recorded under, a missing one being read back as empty
+    private static String account(final Transaction transaction) {
+        return Objects.toString(transaction.account, "");
+    }
+
+    /**
+     * Starts recording transactions. Accounts that are already recorded for a month aren't recorded again,
+     * unless the ledger replaces months.
+     */
+    public Appender newAppender() throws IOException {
+        removeStalePending();
+        return new Appender();
+    }
+
+    Path pendingPath(final YearMonth month) {
+        return directory.resolve(month + EXTENSION + PENDING_EXTENSION);
+    }
+
+    /**
+     * Removes the pending month files of runs that died before committing or throwing away what they recorded.
+     * A live appender holds a lock on its pending files, so only ones that can be locked here are stale.
+     */
+    void removeStalePending() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        final List<Path> pendingFiles = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> path.getFileName().toString().contains(EXTENSION + PENDING_EXTENSION)).forEach(pendingFiles::add);
+        }
+        for (Path pending : pendingFiles) {
+            try (FileChannel channel = FileChannel.open(pending, StandardOpenOption.WRITE)) {
+                if (channel.tryLock() == null) {
+                    // another process is recording the month
+                    continue;
+                }
+                Files.delete(pending);
+                System.err.println("Removed " + pending + ", left behind by a run that didn't finish recording it");
+            } catch (OverlappingFileLockException ex) {
+                // an appender in this process is recording the month
+            } catch (NoSuchFileException ex) {
+                // committed or thrown away meanwhile
+            }
+        }
+    }
+
+    /**
+     * Records transactions into pending month files of its own, which become part of the ledger on commit().
+     * Closing an appender that wasn't committed throws away what it recorded.
+     * An appender is for use by one thread.
+     *
+     * Appenders record side by side, as when each account's export is recorded by its own worker, and commit one
+     * at a time. Committing merges each month by account: the accounts the appender recorded are added to what the month
+     * already holds for its other accounts. An account the month already holds is left as it was, with a message,
+     * unless the ledger replaces months, when the account's transactions for the month are replaced.
+     */
+    public class Appender implements Closeable {
+        private final Map<YearMonth, Partition> partitions = new TreeMap<>();
+        private final ByteBuffer record = ByteBuffer.allocate(5 * (Short.BYTES + 0xFFFF) + Integer.BYTES + Long.BYTES);
+        private boolean committed = false;
+
+        public void append(final Transaction transaction) throws IOException {
+            final YearMonth month = YearMonth.from(transaction.transactionDate);
+            Partition partition = partitions.get(month);
+            if (partition == null) {
+                partition = new Partition(month);
+                partitions.put(month, partition);
+            }
+            partition.accounts.add(account(transaction));
+            write(partition, transaction);
+        }
+
+        private void write(final Partition partition, final Transaction transaction) throws IOException {
+            record.clear();
+            record.putInt((int) transaction.transactionDate.toEpochDay());
+            record.putLong(transaction.amount);
+            putString(transaction.payee);
+            putString(transaction.category);
+            putString(transaction.subCategory);
+            putString(transaction.account);
+            putString(transaction.notes);
+
+            partition.output.writeInt(record.position());
+            partition.output.write(record.array(), 0, record.position());
+        }
+
+        private void putString(final String value) throws IOException {
+            final byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("value too long for the ledger: " + value.substring(0, 40) + "...");
+            }
+            record.putShort((short) bytes.length);
+            record.put(bytes);
+        }
+
+        /**
+         * Merges the recorded months into the ledger, waiting for any other appender that's committing.
+         */
+        public void commit() throws IOException {
+            Files.createDirectories(directory);
+            // the file lock keeps out other processes, and this process's appenders, which a file lock can't, wait here
+            synchronized (COMMIT_LOCK) {
+                try (FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILENAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                     FileLock ignored = lockChannel.lock()) {
+                    for (Partition partition : partitions.values()) {
+                        commit(partition);
+                    }
+                }
+            }
+            partitions.clear();
+            committed = true;
+        }
+
+        private void commit(final Partition partition) throws IOException {
+            final YearMonth month = partition.month;
+            partition.output.flush();
+
+            final Set<String> recordedAccounts = new TreeSet<>();
+            readUnmapped(month, transaction -> recordedAccounts.add(account(transaction)));
+            final Set<String> alreadyRecorded = new TreeSet<>();
+            if (!replaceMonths) {
+                alreadyRecorded.addAll(partition.accounts);
+                alreadyRecorded.retainAll(recordedAccounts);
+            }
+            if (!alreadyRecorded.isEmpty()) {
+                System.err.println("Not recording " + String.join(", ", alreadyRecorded) + " for " + month + " in the ledger, "
+                        + "already recorded from an earlier export (--replace-ledger records it again)");
+            }
+            if (alreadyRecorded.containsAll(partition.accounts)) {
+                partition.discard();
+                return;
+            }
+
+            // what the month holds for the other accounts, then what this appender recorded
+            final ReportAggregate rollup = new ReportAggregate(false);
+            final Partition merged = new Partition(month);
+            try {
+                readUnmapped(month, transaction -> {
+                    if (!partition.accounts.contains(account(transaction)) || alreadyRecorded.contains(account(transaction))) {
+                        write(merged, transaction);
+                        rollup.categorizeTransaction(transaction);
+                    }
+                });
+                readRecords(readFully(partition.channel), partition.path, transaction -> {
+                    if (!alreadyRecorded.contains(account(transaction))) {
+                        write(merged, transaction);
+                        rollup.categorizeTransaction(transaction);
+                    }
+                });
+                merged.output.flush();
+
+                // a month without a rollup has it rebuilt from its transactions, so removing the old rollup first and
+                // writing the new one after the transactions are in place keeps the two in step if the run dies
+                Files.deleteIfExists(rollupPath(month));
+                // moved while still locked, so it's never an unlocked pending file
+                Files.move(merged.path, partitionPath(month), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                merged.discard();
+                partition.discard();
+            }
+            writeRollup(month, rollup);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed) {
+                return;
+            }
+            for (Partition partition : partitions.values()) {
+                partition.discard();
+            }
+            partitions.clear();
+        }
+    }
+
+    /**
+     * A pending month file of one appender, locked for as long as it's open.
+     */
+    private class Partition {
+        final YearMonth month;
+        final Path path;
+        final FileChannel channel;
+        final DataOutputStream output;
+        // the accounts recorded in it
+        final Set<String> accounts = new HashSet<>();
+
+        Partition(final YearMonth month) throws IOException {
+            this.month = month;
+            Files.createDirectories(directory);
+            Path pending;
+            FileChannel pendingChannel;
+            do {
+                pending = directory.resolve(pendingPath(month).getFileName() + "-" + ProcessHandle.current().pid() + "-" + PENDING_IDS.incrementAndGet());
+                pendingChannel = FileChannel.open(pending, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                // held until the month is committed or thrown away, so the pending file isn't taken for a stale one
+                pendingChannel.lock();
+                if (!Files.exists(pending)) {
+                    // removed as stale between being created and locked
+                    pendingChannel.close();
+                    pendingChannel = null;
+                }
+            } while (pendingChannel == null);
+            this.path = pending;
+            this.channel = pendingChannel;
+            this.output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+        }
+
+        void discard() throws IOException {
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+    }
+}
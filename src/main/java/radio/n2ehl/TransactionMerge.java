@@ -0,0 +1,114 @@
+package radio.n2ehl;
+
+import radio.n2ehl.ReportGenerator.Transaction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the transactions of several CSV exports, such as one per Quicken account, into one stream in date order.
+ *
+ * Each export is read a row at a time with its own classifier, since each has its own header row, and only the next
+ * transaction of each export is held, in a heap ordered by date and then by export. Memory grows with the number of
+ * exports rather than their rows. Exports in date order, as Quicken writes them, come out in date order overall,
+ * and transactions on the same date keep the order of the exports.
+ */
+class TransactionMerge implements Closeable {
+    private final List<CsvRowSource> exports;
+    private final PriorityQueue<Head> heads;
+    private long rowsRead = 0;
+    private int lastExport = -1;
+
+    /**
+     * @param exports the exports' rows, closed with the merge
+     * @param classifiers a new classifier for each export
+     */
+    TransactionMerge(final List<CsvRowSource> exports, final List<QuickenRowClassifier> classifiers) throws IOException {
+        this.exports = exports;
+        this.heads = new PriorityQueue<>(Math.max(exports.size(), 1), Comparator
+                .comparing((Head head) -> head.transaction.transactionDate)
+                .thenComparingInt(head -> head.export));
+        for (int i = 0; i < exports.size(); i++) {
+            final Head head = new Head(i, classifiers.get(i));
+            if (advance(head)) {
+                heads.add(head);
+            }
+        }
+    }
+
+    /**
+     * The next transaction in date order, or null when every export has been read.
+     */
+    Transaction next() throws IOException {
+        final Head head = heads.poll();
+        if (head == null) {
+            return null;
+        }
+        final Transaction transaction = head.transaction;
+        lastExport = head.export;
+        if (advance(head)) {
+            heads.add(head);
+        }
+        return transaction;
+    }
+
+    /**
+     * Which export, by its index, the last transaction returned came from.
+     */
+    int getLastExport() {
+        return lastExport;
+    }
+
+    /**
+     * How many rows have been read from all the exports, including ones that weren't transactions.
+     */
+    long getRowsRead() {
+        return rowsRead;
+    }
+
+    // reads the export up to its next transaction, returning false at its end
+    private boolean advance(final Head head) throws IOException {
+        final CsvRowSource rows = exports.get(head.export);
+        String[] row;
+        while ((row = rows.readNext()) != null) {
+            rowsRead++;
+            head.transaction = head.classifier.parseRow(row);
+            if (head.transaction != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (CsvRowSource export : exports) {
+            try {
+                export.close();
+            } catch (IOException ex) {
+                failure = failure == null ? ex : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * An export's next transaction.
+     */
+    private static class Head {
+        final int export;
+        final QuickenRowClassifier classifier;
+        Transaction transaction;
+
+        Head(final int export, final QuickenRowClassifier classifier) {
+            this.export = export;
+            this.classifier = classifier;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package radio.n2ehl;
+
+import radio.n2ehl.ReportGenerator.Transaction;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transactions stored column by column: dates as epoch days, amounts as cents, and the payee, category, subcategory,
+ * account and notes as ids into a Dictionary, so each distinct string is kept once however many rows use it.
+ * A row takes 32 bytes rather than a Transaction with its LocalDate and five Strings.
+ *
+ * Tables built by the same aggregate share its dictionary. A table can be added to one with a different dictionary,
+ * its strings are re-encoded on the way in. A table is for use by one thread at a time.
+ */
+class TransactionTable {
+    private static final int[] NO_INTS = new int[0];
+    private static final long[] NO_LONGS = new long[0];
+
+    private final Dictionary dictionary;
+    private int size = 0;
+    private int[] epochDays = NO_INTS;
+    private long[] amounts = NO_LONGS;
+    private int[] payees = NO_INTS;
+    private int[] categories = NO_INTS;
+    private int[] subcategories = NO_INTS;
+    private int[] accounts = NO_INTS;
+    private int[] notes = NO_INTS;
+
+    TransactionTable(final Dictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    void add(final Transaction transaction) {
+        ensureCapacity(size + 1);
+        epochDays[size] = (int) transaction.transactionDate.toEpochDay();
+        amounts[size] = transaction.amount;
+        payees[size] = dictionary.id(transaction.payee);
+        categories[size] = dictionary.id(transaction.category);
+        subcategories[size] = dictionary.id(transaction.subCategory);
+        accounts[size] = dictionary.id(transaction.account);
+        notes[size] = dictionary.id(transaction.notes);
+        size++;
+    }
+
+    /**
+     * Appends the rows of another table, after this table's own.
+     */
+    void addAll(final TransactionTable other) {
+        if (other.size == 0) {
+            return;
+        }
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.epochDays, 0, epochDays, size, other.size);
+        System.arraycopy(other.amounts, 0, amounts, size, other.size);
+        if (other.dictionary == dictionary) {
+            System.arraycopy(other.payees, 0, payees, size, other.size);
+            System.arraycopy(other.categories, 0, categories, size, other.size);
+            System.arraycopy(other.subcategories, 0, subcategories, size, other.size);
+            System.arraycopy(other.accounts, 0, accounts, size, other.size);
+            System.arraycopy(other.notes, 0, notes, size, other.size);
+        } else {
+            for (int row = 0; row < other.size; row++) {
+                payees[size + row] = dictionary.id(other.getPayee(row));
+                categories[size + row] = dictionary.id(other.getCategory(row));
+                subcategories[size + row] = dictionary.id(other.getSubcategory(row));
+                accounts[size + row] = dictionary.id(other.getAccount(row));
+                notes[size + row] = dictionary.id(other.getNotes(row));
+            }
+        }
+        size += other.size;
+    }
+
+    LocalDate getDate(final int row) {
+        return LocalDate.ofEpochDay(getEpochDay(row));
+    }
+
+    int getEpochDay(final int row) {
+        return epochDays[checkRow(row)];
+    }
+
+    long getAmount(final int row) {
+        return amounts[checkRow(row)];
+    }
+
+    int getPayeeId(final int row) {
+        return payees[checkRow(row)];
+    }
+
+    String getPayee(final int row) {
+        return dictionary.get(getPayeeId(row));
+    }
+
+    String getCategory(final int row) {
+        return dictionary.get(categories[checkRow(row)]);
+    }
+
+    String getSubcategory(final int row) {
+        return dictionary.get(subcategories[checkRow(row)]);
+    }
+
+    String getAccount(final int row) {
+        return dictionary.get(accounts[checkRow(row)]);
+    }
+
+    String getNotes(final int row) {
+        return dictionary.get(notes[checkRow(row)]);
+    }
+
+    /**
+     * The row as a Transaction, for code that wants one object per row.
+     */
+    Transaction get(final int row) {
+        return Transaction.builder()
+                .transactionDate(getDate(row))
+                .payee(getPayee(row))
+                .category(getCategory(row))
+                .subCategory(getSubcategory(row))
+                .amount(getAmount(row))
+                .account(getAccount(row))
+                .notes(getNotes(row))
+                .build();
+    }
+
+    private int checkRow(final int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + size);
+        }
+        return row;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity <= epochDays.length) {
+            return;
+        }
+        final int newCapacity = Math.max(capacity, Math.max(16, epochDays.length + (epochDays.length >> 1)));
+        epochDays = Arrays.copyOf(epochDays, newCapacity);
+        amounts = Arrays.copyOf(amounts, newCapacity);
+        payees = Arrays.copyOf(payees, newCapacity);
+        categories = Arrays.copyOf(categories, newCapacity);
+        subcategories = Arrays.copyOf(subcategories, newCapacity);
+        accounts = Arrays.copyOf(accounts, newCapacity);
+        notes = Arrays.copyOf(notes, newCapacity);
+    }
+
+    /**
+     * The distinct strings of one or more tables, each with an int id in the order it was first seen.
+     */
+    static class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        int id(final String string) {
+            final Integer id = ids.get(string);
+            if (id != null) {
+                return id;
+            }
+            strings.add(string);
+            ids.put(string, strings.size() - 1);
+            return strings.size() - 1;
+        }
+
+        String get(final int id) {
+            return strings.get(id);
+        }
+
+        int size() {
+            return strings.size();
+        }
+    }
+}
@@ -10,7 +10,9 @@ import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
@@ -21,7 +23,7 @@ import org.apache.logging.log4j.LogManager;
 
 import java.io.*;
 import java.math.BigDecimal;
-import java.nio.file.Path;
+import java.text.NumberFormat;
 
 public class TreasurersReport extends Application {
 
@@ -30,15 +32,51 @@ public class TreasurersReport extends Application {
     final Button btnSaveButton = new Button("Generate Report...");
     final MoneyField fldStartBal = new MoneyField();
     final MoneyField fldEndBal = new MoneyField();
+    final ProgressBar progressBar = new ProgressBar(0);
+    final Label lblProgress = new Label();
+    final Button btnCancel = new Button("Cancel");
+    final HBox progressBox = new HBox(10, progressBar, lblProgress, btnCancel);
+
+    // the summary of the selected export, its totals are read once and the balance figures follow the balance fields
+    final Label lblSummaryTitle = new Label();
+    final Label lblTotalIncome = new Label();
+    final Label lblTotalExpenses = new Label();
+    final Label lblNetChange = new Label();
+    final Label lblBalanceChange = new Label();
+    final Label lblReconciliation = new Label();
+    final Button btnTransactions = new Button("Transactions...");
+    final GridPane summaryGrid = new GridPane();
 
     File inputCSVFile;
     FileChooser fileChooser;
     Stage stage;
     File outputPdfFile;
+    ReportTask reportTask;
+    SummaryTask summaryTask;
+    ReportGenerator.Summary summary;
 
     @Override
     public void start(Stage stage) {
         setupScene(stage);
+        startRendererWarmUp();
+    }
+
+    /**
+     * Warms up the PDF rendering stack on a low priority thread while the balances are typed in,
+     * so the first report isn't slower than the ones after it.
+     */
+    private void startRendererWarmUp() {
+        final Thread thread = new Thread(() -> {
+            try {
+                MarkdownToPdfConverter.getInstance().warmUp();
+            } catch (RuntimeException ex) {
+                // the first report does the work instead, and shows any real problem
+                LogManager.getLogger().warn("could not warm up the PDF renderer", ex);
+            }
+        }, "renderer-warm-up");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
     }
 
     private void setupScene(Stage stage) {
@@ -106,15 +144,114 @@ public class TreasurersReport extends Application {
         grid.add(label, 0, 5, 2, rowIndex++);
 
         rowIndex += 10;
-        GridPane.setHalignment(btnSaveButton, HPos.CENTER);
-        grid.add(btnSaveButton, 0, 7, 2, rowIndex);
+        btnCancel.setOnAction(e -> cancelReport());
+        progressBox.setAlignment(Pos.CENTER);
+        progressBox.setVisible(false);
+        progressBox.setManaged(false);
+
+        setupSummary();
+
+        VBox reportBox = new VBox(10, summaryGrid, btnSaveButton, progressBox);
+        reportBox.setAlignment(Pos.CENTER);
+        grid.add(reportBox, 0, 7, 2, rowIndex);
         btnSaveButton.setDisable(true);
 
-        Scene scene = new Scene(grid, 600, 450);
+        Scene scene = new Scene(grid, 600, 600);
         stage.setScene(scene);
         stage.show();
     }
 
+    private void setupSummary() {
+        summaryGrid.setAlignment(Pos.CENTER);
+        summaryGrid.setHgap(20);
+        summaryGrid.setVgap(4);
+        lblSummaryTitle.setFont(Font.font("Tahoma", FontWeight.BOLD, 13));
+        summaryGrid.add(lblSummaryTitle, 0, 0, 2, 1);
+        summaryGrid.add(new Label("Total Income"), 0, 1);
+        summaryGrid.add(lblTotalIncome, 1, 1);
+        summaryGrid.add(new Label("Total Expenses"), 0, 2);
+        summaryGrid.add(lblTotalExpenses, 1, 2);
+        summaryGrid.add(new Label("Net Change"), 0, 3);
+        summaryGrid.add(lblNetChange, 1, 3);
+        summaryGrid.add(lblBalanceChange, 0, 4, 2, 1);
+        summaryGrid.add(lblReconciliation, 0, 5, 2, 1);
+        GridPane.setHalignment(btnTransactions, HPos.CENTER);
+        summaryGrid.add(btnTransactions, 0, 6, 2, 1);
+        btnTransactions.setOnAction(e -> new TransactionDrillDown(stage, summary).show());
+        for (Label amount : new Label[]{lblTotalIncome, lblTotalExpenses, lblNetChange}) {
+            GridPane.setHalignment(amount, HPos.RIGHT);
+        }
+        summaryGrid.setVisible(false);
+        summaryGrid.setManaged(false);
+
+        fldStartBal.valueProperty().addListener((observable, oldValue, newValue) -> updateBalanceFigures());
+        fldEndBal.valueProperty().addListener((observable, oldValue, newValue) -> updateBalanceFigures());
+    }
+
+    /**
+     * Reads the export's totals in the background, replacing any read still going for a previously selected export.
+     */
+    private void readSummary(final File file) {
+        if (summaryTask != null) {
+            summaryTask.cancel();
+        }
+        showSummary(null);
+        lblSummaryTitle.setText("Reading " + file.getName() + "...");
+        summaryGrid.setVisible(true);
+        summaryGrid.setManaged(true);
+
+        final SummaryTask task = new SummaryTask(file);
+        task.setOnSucceeded(e -> {
+            if (summaryTask == task) {
+                summaryTask = null;
+                showSummary(task.getValue());
+            }
+        });
+        task.setOnFailed(e -> {
+            if (summaryTask == task) {
+                summaryTask = null;
+                lblSummaryTitle.setText(task.getException().getMessage());
+            }
+        });
+        summaryTask = task;
+
+        final Thread thread = new Thread(task, "summary-reader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void showSummary(final ReportGenerator.Summary summary) {
+        this.summary = summary;
+        lblSummaryTitle.setText(summary != null ? "Summary for " + summary.reportPeriod : "");
+        lblTotalIncome.setText(summary != null ? Cents.toCurrencyString(summary.totalIncome) : "");
+        lblTotalExpenses.setText(summary != null ? Cents.toCurrencyString(summary.totalExpenses) : "");
+        lblNetChange.setText(summary != null ? Cents.toCurrencyString(summary.netChange) : "");
+        btnTransactions.setDisable(summary == null);
+        updateBalanceFigures();
+    }
+
+    /**
+     * Updates the figures that depend on the balances, from the totals already read.
+     */
+    private void updateBalanceFigures() {
+        final BigDecimal startingBalance = fldStartBal.getValue();
+        final BigDecimal endingBalance = fldEndBal.getValue();
+        if (summary == null || startingBalance == null || endingBalance == null) {
+            lblBalanceChange.setText(summary != null ? "Enter both balances to compare them with the transactions" : "");
+            lblReconciliation.setText("");
+            return;
+        }
+
+        final NumberFormat currency = NumberFormat.getCurrencyInstance();
+        final BigDecimal balanceChange = endingBalance.subtract(startingBalance);
+        lblBalanceChange.setText("The balance went from " + currency.format(startingBalance) + " to " + currency.format(endingBalance)
+                + ", a net " + (balanceChange.signum() >= 0 ? "increase" : "decrease") + " of " + currency.format(balanceChange.abs()));
+
+        final BigDecimal difference = balanceChange.subtract(Cents.toBigDecimal(summary.netChange));
+        lblReconciliation.setText(difference.signum() == 0 ? "The transactions account for all of the change"
+                : "The change differs from the transactions' net change by " + currency.format(difference));
+    }
+
     private void showError(String errorString) {
         Alert alert = new Alert(Alert.AlertType.ERROR);
         alert.initOwner(stage.getScene().getWindow());
@@ -125,7 +262,8 @@ public class TreasurersReport extends Application {
     }
 
     void onChange() {
-        btnSaveButton.setDisable(fldStartBal.getValue() == null ||
+        btnSaveButton.setDisable(reportTask != null ||
+                fldStartBal.getValue() == null ||
                 fldEndBal.getValue() == null ||
                 inputCSVFile == null);
     }
@@ -157,8 +295,13 @@ public class TreasurersReport extends Application {
     }
 
     private void setInputCSVFile(File file) {
+        if (file == null) {
+            // the file chooser was cancelled
+            return;
+        }
         inputCSVFile = file;
         label.setText(file.getName() + "  selected");
+        readSummary(file);
     }
 
 
@@ -176,29 +319,53 @@ public class TreasurersReport extends Application {
         LogManager.getLogger().info("csv = " + inputCSVFile);
         LogManager.getLogger().info("output = " + outputPdfFile);
 
-        Path markdownPath = generateMarkdownFile(inputCSVFile.getAbsolutePath(), fldStartBal.getValue(), fldEndBal.getValue());
-        if(markdownPath != null) {
-            try {
-                if(convertMarkdownToPDF(markdownPath.toFile(), new File(outputPath))) {
-                    java.awt.Desktop.getDesktop().open(outputPdfFile);
-                } else {
-                    showError("Got non-zero return on pdf conversion");
-                }
-            } catch(IOException ex) {
-                showError("Encountered an error while converting markdown file to PDF:\n" + ExceptionUtils.getStackTrace(ex));
-            }
-        }
+        // the CSV parsing and rendering run in the background, only opening the PDF comes back to the FX thread
+        final ReportTask task = new ReportTask(inputCSVFile, fldStartBal.getValue(), fldEndBal.getValue(), new File(outputPath));
+        task.setOnSucceeded(e -> {
+            reportFinished();
+            openPdf(task.getValue());
+        });
+        task.setOnFailed(e -> {
+            reportFinished();
+            showError("Encountered an error while generating the report:\n" + ExceptionUtils.getStackTrace(task.getException()));
+        });
+        task.setOnCancelled(e -> reportFinished());
+
+        reportTask = task;
+        progressBar.progressProperty().bind(task.progressProperty());
+        lblProgress.textProperty().bind(task.messageProperty());
+        progressBox.setVisible(true);
+        progressBox.setManaged(true);
+        btnSelectInputFile.setDisable(true);
+        onChange();
+
+        final Thread thread = new Thread(task, "report-generator");
+        thread.setDaemon(true);
+        thread.start();
     }
 
+    private void cancelReport() {
+        if(reportTask != null) {
+            reportTask.cancel();
+        }
+    }
 
-    private Path generateMarkdownFile(String inputFileName, BigDecimal startingBalance, BigDecimal endingBalance) {
-        // generates the markdown in a temp file
-        return ReportGenerator.generateMarkdown(inputFileName, startingBalance, endingBalance);
+    private void reportFinished() {
+        reportTask = null;
+        progressBar.progressProperty().unbind();
+        lblProgress.textProperty().unbind();
+        progressBox.setVisible(false);
+        progressBox.setManaged(false);
+        btnSelectInputFile.setDisable(false);
+        onChange();
     }
 
-    private boolean convertMarkdownToPDF(File markdownFile, File outputPdfFile) throws IOException {
-        MarkdownToPdfConverter.convertMarkdownToPdf(markdownFile.toPath(), outputPdfFile.toPath());
-        return true;
+    private void openPdf(final File pdfFile) {
+        try {
+            java.awt.Desktop.getDesktop().open(pdfFile);
+        } catch(IOException ex) {
+            showError("Encountered an error while opening the PDF:\n" + ExceptionUtils.getStackTrace(ex));
+        }
     }
 
     public static void main(String[] args) {
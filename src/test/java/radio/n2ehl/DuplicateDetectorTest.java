@@ -0,0 +1,106 @@
+package radio.n2ehl;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import radio.n2ehl.ReportGenerator.Transaction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DuplicateDetectorTest {
+    private static final LocalDate START = LocalDate.of(2020, 1, 1);
+    private static final int WINDOW_DAYS = 3;
+
+    @Test
+    void indexStaysBoundedForOutOfOrderExports() {
+        final DuplicateDetector detector = detector();
+        final int days = 4 * 365;
+        // one transaction of each amount for each day in the window
+        final int maxIndexSize = 3 * (WINDOW_DAYS + 1);
+        // the first export newest first, the second oldest first, then the first again at random
+        for (int day = days - 1; day >= 0; day--) {
+            detector.isDuplicate(transaction(day, 1000), 0);
+            assertTrue(detector.indexSize() <= maxIndexSize, "index size " + detector.indexSize());
+        }
+        for (int day = 0; day < days; day++) {
+            detector.isDuplicate(transaction(day, 2000), 1);
+            assertTrue(detector.indexSize() <= maxIndexSize, "index size " + detector.indexSize());
+        }
+        final Random random = new Random(1);
+        for (int i = 0; i < days; i++) {
+            detector.isDuplicate(transaction(random.nextInt(days), 3000), 0);
+            assertTrue(detector.indexSize() <= maxIndexSize, "index size " + detector.indexSize());
+        }
+        assertTrue(detector.getUncheckedCount() > 0);
+    }
+
+    @Test
+    void duplicatesOutOfOrderWithinTheWindowAreFound() {
+        final DuplicateDetector detector = detector();
+        assertFalse(detector.isDuplicate(transaction(10, 1000), 0));
+        assertFalse(detector.isDuplicate(transaction(8, 2000), 0));
+        assertFalse(detector.isDuplicate(transaction(9, 3000), 0));
+
+        assertTrue(detector.isDuplicate(transaction(8, 2000), 1));
+        assertTrue(detector.isDuplicate(transaction(10, 1000), 1));
+        assertFalse(detector.isDuplicate(transaction(9, 4000), 1));
+        assertEquals(2, detector.getDuplicateCount());
+        assertEquals(0, detector.getUncheckedCount());
+    }
+
+    @Test
+    void transactionsBehindTheWindowAreCountedAsUnchecked() {
+        final DuplicateDetector detector = detector();
+        assertFalse(detector.isDuplicate(transaction(1, 1000), 0));
+        assertFalse(detector.isDuplicate(transaction(20, 2000), 0));
+
+        assertFalse(detector.isDuplicate(transaction(1, 1000), 1));
+        assertEquals(0, detector.getDuplicateCount());
+        assertEquals(1, detector.getUncheckedCount());
+    }
+
+    @Test
+    void repeatsWithinOneExportAreNotDuplicates() {
+        final DuplicateDetector detector = detector();
+        assertFalse(detector.isDuplicate(transaction(1, 1000), 0));
+        assertFalse(detector.isDuplicate(transaction(1, 1000), 0));
+        assertTrue(detector.isDuplicate(transaction(1, 1000), 1));
+        assertTrue(detector.isDuplicate(transaction(1, 1000), 1));
+        assertFalse(detector.isDuplicate(transaction(1, 1000), 1));
+        assertEquals(2, detector.getDuplicateCount());
+    }
+
+    @Test
+    void windowSettingIsValidated() {
+        assertEquals(DuplicateDetector.DEFAULT_WINDOW_DAYS, DuplicateDetector.windowDays(new ReportConfig(new HashMap<>())));
+        assertEquals(0, DuplicateDetector.windowDays(new ReportConfig(Map.of(DuplicateDetector.WINDOW_SETTING, "0"))));
+        for (String invalid : new String[] {"three", "-1"}) {
+            final IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+                    () -> DuplicateDetector.windowDays(new ReportConfig(Map.of(DuplicateDetector.WINDOW_SETTING, invalid))));
+            assertTrue(ex.getMessage().contains(DuplicateDetector.WINDOW_SETTING), ex.getMessage());
+        }
+    }
+
+    private static DuplicateDetector detector() {
+        return new DuplicateDetector(2, WINDOW_DAYS, new TransactionTable.Dictionary());
+    }
+
+    private static Transaction transaction(final int day, final long amount) {
+        return Transaction.builder()
+                .transactionDate(START.plusDays(day))
+                .payee("Payee")
+                .category("Dues")
+                .subCategory(QuickenRowClassifier.OTHER_SUBCATEGORY)
+                .amount(amount)
+                .account("Checking")
+                .notes("")
+                .build();
+    }
+}
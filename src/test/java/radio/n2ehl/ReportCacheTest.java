@@ -0,0 +1,170 @@
+package radio.n2ehl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReportCacheTest {
+    private static final BigDecimal STARTING_BALANCE = new BigDecimal("1000.00");
+    private static final BigDecimal ENDING_BALANCE = new BigDecimal("1200.00");
+    private static final long ENTRY_BYTES = 1000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void sameReportHasTheSameKey() throws IOException {
+        final Path csv = csv();
+
+        assertEquals(key(csv, "3/abc"), key(csv, "3/abc"));
+        assertEquals(ReportCache.key(csv, STARTING_BALANCE, ENDING_BALANCE, config()),
+                ReportCache.key(csv, new BigDecimal("1000"), ENDING_BALANCE, config()));
+    }
+
+    @Test
+    void keyChangesWithTheReportLayout() throws IOException {
+        final Path csv = csv();
+
+        // a bumped renderer version, or a generator whose classes or stylesheet changed
+        assertNotEquals(key(csv, "3/abc"), key(csv, "4/abc"));
+        assertNotEquals(key(csv, "3/abc"), key(csv, "3/abd"));
+    }
+
+    @Test
+    void keyIsVersionedByThisBuild() throws IOException {
+        final Path csv = csv();
+
+        assertTrue(ReportCache.generatorVersion().startsWith(MarkdownToPdfConverter.RENDERER_VERSION + "/"));
+        assertEquals(key(csv, ReportCache.generatorVersion()), ReportCache.key(csv, STARTING_BALANCE, ENDING_BALANCE, config()));
+        assertNotEquals(key(csv, ReportCache.generatorVersion()), key(csv, "0/" + ReportCache.generatorVersion()));
+    }
+
+    @Test
+    void fingerprintCoversTheGeneratorClasses() {
+        assertTrue(ReportCache.GeneratorFingerprint.isGeneratorClass("QuickenColumns.class"));
+        assertTrue(ReportCache.GeneratorFingerprint.isGeneratorClass("TransactionTable.class"));
+        assertTrue(ReportCache.GeneratorFingerprint.isGeneratorClass("ReportGenerator$Transaction.class"));
+        assertFalse(ReportCache.GeneratorFingerprint.isGeneratorClass("ReportServer.class"));
+        assertFalse(ReportCache.GeneratorFingerprint.isGeneratorClass("TreasurersReport$1.class"));
+        assertFalse(ReportCache.GeneratorFingerprint.isGeneratorClass("report.css"));
+    }
+
+    @Test
+    void maxMbSettingIsValidated() {
+        assertEquals(ReportCache.DEFAULT_MAX_MB, ReportCache.maxMb(new ReportConfig(new HashMap<>())));
+        assertEquals(0L, ReportCache.maxMb(config("0")));
+        assertEquals(64L, ReportCache.maxMb(config(" 64 ")));
+        for (String invalid : new String[] {"64MB", "-1", "9223372036854775807"}) {
+            final IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> ReportCache.maxMb(config(invalid)));
+            assertTrue(ex.getMessage().contains(ReportCache.CACHE_MAX_MB_SETTING), ex.getMessage());
+        }
+    }
+
+    @Test
+    void hitCopiesTheCachedPdf() throws IOException {
+        final ReportCache cache = new ReportCache(directory.resolve("cache"), ENTRY_BYTES * 2);
+        final Path pdf = pdf("a.pdf", (byte) 1);
+        cache.put("a", pdf);
+
+        final Path output = directory.resolve("output.pdf");
+        Files.write(output, new byte[] {9});
+        assertTrue(cache.copyTo("a", output));
+        assertTrue(Arrays.equals(Files.readAllBytes(pdf), Files.readAllBytes(output)));
+        // nothing is left behind by the copy
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of("a.pdf", "cache", "output.pdf"), files.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList()));
+        }
+
+        assertFalse(cache.copyTo("b", output));
+    }
+
+    @Test
+    void disabledCacheKeepsNothing() throws IOException {
+        final ReportCache cache = new ReportCache(directory.resolve("cache"), 0);
+        cache.put("a", pdf("a.pdf", (byte) 1));
+
+        assertFalse(Files.exists(directory.resolve("cache")));
+        assertFalse(cache.copyTo("a", directory.resolve("output.pdf")));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() throws IOException {
+        final ReportCache cache = new ReportCache(directory.resolve("cache"), ENTRY_BYTES * 2 + ENTRY_BYTES / 2);
+        cache.put("a", pdf("a.pdf", (byte) 1));
+        cache.put("b", pdf("b.pdf", (byte) 2));
+        lastUsed(cache, "a", 3);
+        lastUsed(cache, "b", 2);
+
+        cache.put("c", pdf("c.pdf", (byte) 3));
+
+        assertFalse(Files.exists(cache.entryPath("a")));
+        assertTrue(Files.exists(cache.entryPath("b")));
+        assertTrue(Files.exists(cache.entryPath("c")));
+    }
+
+    @Test
+    void hitMakesTheEntryRecentlyUsed() throws IOException {
+        final ReportCache cache = new ReportCache(directory.resolve("cache"), ENTRY_BYTES * 2 + ENTRY_BYTES / 2);
+        cache.put("a", pdf("a.pdf", (byte) 1));
+        cache.put("b", pdf("b.pdf", (byte) 2));
+        lastUsed(cache, "a", 3);
+        lastUsed(cache, "b", 2);
+
+        assertTrue(cache.copyTo("a", directory.resolve("output.pdf")));
+        cache.put("c", pdf("c.pdf", (byte) 3));
+
+        assertTrue(Files.exists(cache.entryPath("a")));
+        assertFalse(Files.exists(cache.entryPath("b")));
+        assertTrue(Files.exists(cache.entryPath("c")));
+    }
+
+    private Path pdf(final String name, final byte content) throws IOException {
+        final byte[] bytes = new byte[(int) ENTRY_BYTES];
+        Arrays.fill(bytes, content);
+        return Files.write(directory.resolve(name), bytes);
+    }
+
+    // the entry was last used the given number of hours ago
+    private static void lastUsed(final ReportCache cache, final String key, final int hoursAgo) throws IOException {
+        Files.setLastModifiedTime(cache.entryPath(key), FileTime.from(Instant.now().minus(hoursAgo, ChronoUnit.HOURS)));
+    }
+
+    private Path csv() throws IOException {
+        final Path csv = directory.resolve("export.csv");
+        Files.writeString(csv, "Date,Payee,Category,Amount\n9/1/2026,Payee,Dues,50.00\n");
+        return csv;
+    }
+
+    private static String key(final Path csv, final String generatorVersion) throws IOException {
+        return ReportCache.key(List.of(csv), STARTING_BALANCE, ENDING_BALANCE, config(), generatorVersion);
+    }
+
+    private static ReportConfig config() {
+        return config("0");
+    }
+
+    private static ReportConfig config(final String maxMb) {
+        final Map<String, String> settings = new HashMap<>();
+        settings.put(ReportCache.CACHE_MAX_MB_SETTING, maxMb);
+        return new ReportConfig(settings);
+    }
+}
@@ -0,0 +1,148 @@
+package radio.n2ehl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import radio.n2ehl.ReportGenerator.Transaction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionLedgerTest {
+    private static final YearMonth MONTH = YearMonth.of(2026, 9);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void stalePendingFileDoesNotBlockTheMonth() throws IOException {
+        final TransactionLedger ledger = new TransactionLedger(directory);
+        // as left by a run that died while recording the month
+        Files.writeString(ledger.pendingPath(MONTH), "partial");
+
+        record(ledger, transaction(1, "Dues", 5000));
+
+        assertFalse(Files.exists(ledger.pendingPath(MONTH)));
+        assertTrue(ledger.contains(MONTH));
+        assertEquals(List.of(transaction(1, "Dues", 5000)), read(ledger));
+    }
+
+    @Test
+    void pendingFileOfARunningAppenderIsKept() throws IOException {
+        final TransactionLedger ledger = new TransactionLedger(directory);
+        try (TransactionLedger.Appender running = ledger.newAppender()) {
+            running.append(transaction(1, "Dues", 5000));
+
+            // another run recording another account meanwhile doesn't remove the running one's pending file
+            record(ledger, transaction(2, "Savings", "Interest", 12));
+            assertEquals(1, pendingFiles().size());
+
+            running.commit();
+        }
+        assertEquals(List.of(transaction(2, "Savings", "Interest", 12), transaction(1, "Dues", 5000)), read(ledger));
+        assertEquals(List.of(), pendingFiles());
+    }
+
+    @Test
+    void recordedAccountIsNotRecordedAgain() throws IOException {
+        final TransactionLedger ledger = new TransactionLedger(directory);
+        record(ledger, transaction(1, "Dues", 5000));
+
+        record(ledger, transaction(2, "Donations", 700));
+
+        assertEquals(List.of(transaction(1, "Dues", 5000)), read(ledger));
+    }
+
+    @Test
+    void eachAccountsExportAddsToTheMonth() throws IOException {
+        final TransactionLedger ledger = new TransactionLedger(directory);
+        record(ledger, transaction(1, "Dues", 5000));
+
+        record(ledger, transaction(2, "Savings", "Interest", 12), transaction(3, "Savings", "Dues", 2500));
+
+        assertEquals(List.of(transaction(1, "Dues", 5000), transaction(2, "Savings", "Interest", 12), transaction(3, "Savings", "Dues", 2500)),
+                read(ledger));
+        final ReportAggregate rollup = ledger.readRollup(MONTH);
+        assertEquals(7500, rollup.creditCategories.get("Dues").total);
+        assertEquals(12, rollup.creditCategories.get("Interest").total);
+    }
+
+    @Test
+    void correctedAccountReplacesOnlyItsOwnTransactions() throws IOException {
+        final TransactionLedger ledger = new TransactionLedger(directory);
+        record(ledger, transaction(1, "Dues", 5000), transaction(2, "Savings", "Interest", 12));
+
+        record(ledger.replacingMonths(), transaction(1, "Dues", 5000), transaction(20, "Dues", 2500));
+
+        assertEquals(List.of(transaction(2, "Savings", "Interest", 12), transaction(1, "Dues", 5000), transaction(20, "Dues", 2500)),
+                read(ledger));
+        final ReportAggregate rollup = ledger.readRollup(MONTH);
+        assertEquals(7500, rollup.creditCategories.get("Dues").total);
+        assertEquals(12, rollup.creditCategories.get("Interest").total);
+    }
+
+    @Test
+    void correctedMonthReplacesTheRecordedOne() throws IOException {
+        final TransactionLedger ledger = new TransactionLedger(directory);
+        // recorded from an export that stopped part way through the month
+        record(ledger, transaction(1, "Dues", 5000));
+        assertEquals(5000, ledger.readRollup(MONTH).creditCategories.get("Dues").total);
+
+        record(ledger.replacingMonths(), transaction(1, "Dues", 5000), transaction(20, "Dues", 2500), transaction(21, "Donations", 700));
+
+        assertEquals(List.of(transaction(1, "Dues", 5000), transaction(20, "Dues", 2500), transaction(21, "Donations", 700)), read(ledger));
+        final ReportAggregate rollup = ledger.readRollup(MONTH);
+        assertEquals(7500, rollup.creditCategories.get("Dues").total);
+        assertEquals(700, rollup.creditCategories.get("Donations").total);
+        assertEquals(List.of(), pendingFiles());
+    }
+
+    private List<Path> pendingFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().contains(TransactionLedger.EXTENSION + TransactionLedger.PENDING_EXTENSION))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void record(final TransactionLedger ledger, final Transaction... transactions) throws IOException {
+        try (TransactionLedger.Appender appender = ledger.newAppender()) {
+            for (Transaction transaction : transactions) {
+                appender.append(transaction);
+            }
+            appender.commit();
+        }
+    }
+
+    private static List<Transaction> read(final TransactionLedger ledger) throws IOException {
+        final List<Transaction> transactions = new ArrayList<>();
+        ledger.read(MONTH, transactions::add);
+        return transactions;
+    }
+
+    private static Transaction transaction(final int day, final String category, final long amount) {
+        return transaction(day, "Checking", category, amount);
+    }
+
+    private static Transaction transaction(final int day, final String account, final String category, final long amount) {
+        return Transaction.builder()
+                .transactionDate(LocalDate.of(2026, 9, day))
+                .payee("Payee")
+                .category(category)
+                .subCategory(QuickenRowClassifier.OTHER_SUBCATEGORY)
+                .amount(amount)
+                .account(account)
+                .notes("")
+                .build();
+    }
+}